@@ -0,0 +1,96 @@
+package org.light.alpaca.config.benchmark;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.light.alpaca.config.bootstrap.AlpacaConfig;
+import org.light.alpaca.config.zookeeper.AlpacaPropertySource;
+import org.light.alpaca.config.zookeeper.TreeFixtures;
+import org.light.alpaca.config.zookeeper.ZookeeperPropertySource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading an int, a boolean and a duration the way request paths do: through
+ * {@code Environment.getProperty(key, type)}, which walks the property sources and converts on
+ * every call, and through {@link AlpacaConfig} handles, one key at a time or all three from one
+ * snapshot. Run with {@code -prof gc} to see the allocation rate.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConfigAccessBenchmark {
+	private StandardEnvironment      environment;
+	private AlpacaConfig             config;
+	private AlpacaConfig.IntKey      limit;
+	private AlpacaConfig.BooleanKey  flag;
+	private AlpacaConfig.DurationKey timeout;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		// never started, the source is built from a tree in memory
+		CuratorFramework curator = CuratorFrameworkFactory.newClient("127.0.0.1:2181", new RetryOneTime(100));
+		environment = new StandardEnvironment();
+		String root = "/config/applications/app/dev";
+		ZookeeperPropertySource source = new ZookeeperPropertySource(root, "", curator, TreeFixtures.tree(root, 1000, 3, 32));
+		Map<String, Object> values = new HashMap<>();
+		values.put("limits.orders.max", "250");
+		values.put("features.checkout.enabled", "true");
+		values.put("timeouts.payment", "1500");
+		// behind the system properties and environment variables, like the zookeeper contexts
+		AlpacaPropertySource alpaca = AlpacaPropertySource.get(environment.getPropertySources());
+		alpaca.addLast(new MapPropertySource("values", values));
+		alpaca.addLast(source);
+
+		config = new AlpacaConfig(environment);
+		limit = config.intKey("limits.orders.max", 100);
+		flag = config.booleanKey("features.checkout.enabled", false);
+		timeout = config.durationKey("timeouts.payment", Duration.ofSeconds(1));
+	}
+
+	@Benchmark
+	public Integer environmentInt() {
+		return environment.getProperty("limits.orders.max", Integer.class);
+	}
+
+	@Benchmark
+	public long environmentThree() {
+		int limit = environment.getProperty("limits.orders.max", Integer.class);
+		boolean flag = environment.getProperty("features.checkout.enabled", Boolean.class);
+		long timeout = environment.getProperty("timeouts.payment", Long.class);
+		return flag ? limit + timeout : timeout;
+	}
+
+	@Benchmark
+	public int handleInt() {
+		return limit.get();
+	}
+
+	@Benchmark
+	public long handleThree() {
+		AlpacaConfig.Snapshot snapshot = config.snapshot();
+		return flag.get(snapshot) ? limit.get(snapshot) + timeout.getMillis(snapshot) : timeout.getMillis(snapshot);
+	}
+}
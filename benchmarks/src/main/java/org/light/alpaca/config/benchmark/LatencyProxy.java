@@ -0,0 +1,99 @@
+package org.light.alpaca.config.benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A TCP proxy that holds back everything it forwards by a fixed delay in each direction, to put
+ * a remote ensemble's round trip between the benchmarks and a local zookeeper.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class LatencyProxy implements Closeable {
+	private final ServerSocket  server;
+	private final int           targetPort;
+	private final long          delayMs;
+	private final List<Socket>  sockets = new CopyOnWriteArrayList<>();
+	private volatile boolean    closed;
+
+	public LatencyProxy(int targetPort, long delayMs) throws IOException {
+		this.server = new ServerSocket(0);
+		this.targetPort = targetPort;
+		this.delayMs = delayMs;
+		Thread acceptor = new Thread(this::accept, "latency-proxy");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public String getConnectString() {
+		return "127.0.0.1:" + server.getLocalPort();
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket client = server.accept();
+				Socket target = new Socket();
+				target.connect(new InetSocketAddress("127.0.0.1", targetPort));
+				client.setTcpNoDelay(true);
+				target.setTcpNoDelay(true);
+				sockets.add(client);
+				sockets.add(target);
+				pump(client, target);
+				pump(target, client);
+			} catch (IOException e) {
+				if (!closed) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void pump(Socket from, Socket to) {
+		Thread thread = new Thread(() -> {
+			byte[] buffer = new byte[64 * 1024];
+			try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+				int n;
+				while ((n = in.read(buffer)) >= 0) {
+					if (delayMs > 0) {
+						Thread.sleep(delayMs);
+					}
+					out.write(buffer, 0, n);
+					out.flush();
+				}
+			} catch (IOException | InterruptedException e) {
+				// connection closed
+			} finally {
+				closeQuietly(from);
+				closeQuietly(to);
+			}
+		}, "latency-proxy-pump");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		for (Socket socket : sockets) {
+			closeQuietly(socket);
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+}
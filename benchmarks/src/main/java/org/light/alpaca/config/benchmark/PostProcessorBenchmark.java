@@ -0,0 +1,150 @@
+package org.light.alpaca.config.benchmark;
+
+import org.light.alpaca.config.bootstrap.AlpacaInstantiationAwareBeanPostProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.boot.context.properties.ConfigurationBeanFactoryMetaData;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link AlpacaInstantiationAwareBeanPostProcessor} costs each bean of a large context that
+ * it has nothing to load for: plain beans, beans with @ConfigurationProperties outside of
+ * alpaca, and alpaca beans whose properties are already there. The refresh benchmarks start whole
+ * contexts of that mix with and without the post-processor.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PostProcessorBenchmark {
+	private static final int BEANS = 1024;
+
+	private GenericApplicationContext                 context;
+	private AlpacaInstantiationAwareBeanPostProcessor processor;
+	private String[]                                  names;
+	private Object                                    plain;
+	private Object                                    properties;
+	private Object                                    alpaca;
+	private int                                       next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		context = new GenericApplicationContext();
+		context.registerBeanDefinition("configurationBeanFactoryMetaData",
+				new RootBeanDefinition(ConfigurationBeanFactoryMetaData.class));
+		context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("bound",
+				Collections.<String, Object>singletonMap("alpaca.datasource.bench", "bound")));
+		context.refresh();
+		processor = new AlpacaInstantiationAwareBeanPostProcessor();
+		processor.setApplicationContext(context);
+
+		names = new String[BEANS];
+		for (int i = 0; i < BEANS; i++) {
+			names[i] = "bean" + i;
+		}
+		plain = new Plain();
+		properties = new ServerProperties();
+		alpaca = new BoundAlpacaProperties();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	private String name() {
+		int i = next;
+		next = (i + 1) & (BEANS - 1);
+		return names[i];
+	}
+
+	@Benchmark
+	public Object plainBean() {
+		return processor.postProcessBeforeInitialization(plain, name());
+	}
+
+	@Benchmark
+	public Object configurationPropertiesBean() {
+		return processor.postProcessBeforeInitialization(properties, name());
+	}
+
+	@Benchmark
+	public Object boundAlpacaBean() {
+		return processor.postProcessBeforeInitialization(alpaca, name());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object refreshWithProcessor(Refresh refresh) {
+		return refresh.refresh(true);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object refreshWithoutProcessor(Refresh refresh) {
+		return refresh.refresh(false);
+	}
+
+	/**
+	 * A context of as many distinct bean definitions, each third plain, @ConfigurationProperties
+	 * outside of alpaca, and bound alpaca beans.
+	 */
+	@State(Scope.Thread)
+	public static class Refresh {
+		private static final Class<?>[] TYPES = {Plain.class, ServerProperties.class, BoundAlpacaProperties.class};
+
+		@Param({"1000", "5000", "10000"})
+		public int beans;
+
+		GenericApplicationContext refresh(boolean withProcessor) {
+			GenericApplicationContext context = new GenericApplicationContext();
+			context.registerBeanDefinition("configurationBeanFactoryMetaData",
+					new RootBeanDefinition(ConfigurationBeanFactoryMetaData.class));
+			if (withProcessor) {
+				context.registerBeanDefinition("alpacaInstantiationAwareBeanPostProcessor",
+						new RootBeanDefinition(AlpacaInstantiationAwareBeanPostProcessor.class));
+			}
+			for (int i = 0; i < beans; i++) {
+				context.registerBeanDefinition("bean" + i, new RootBeanDefinition(TYPES[i % TYPES.length]));
+			}
+			context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("bound",
+					Collections.<String, Object>singletonMap("alpaca.datasource.bench", "bound")));
+			context.refresh();
+			context.close();
+			return context;
+		}
+	}
+
+	public static class Plain {
+	}
+
+	@ConfigurationProperties("bench.server")
+	public static class ServerProperties {
+	}
+
+	@ConfigurationProperties("alpaca.datasource.bench")
+	public static class BoundAlpacaProperties {
+	}
+}
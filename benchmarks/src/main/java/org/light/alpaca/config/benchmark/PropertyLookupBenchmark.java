@@ -0,0 +1,121 @@
+package org.light.alpaca.config.benchmark;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.light.alpaca.config.zookeeper.AlpacaPropertySource;
+import org.light.alpaca.config.zookeeper.TreeFixtures;
+import org.light.alpaca.config.zookeeper.ZookeeperPropertySource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySourcesPropertyResolver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Property lookups: straight on a {@link ZookeeperPropertySource}, and through a resolver over
+ * {@code layers} contexts, either each one a source of its own as before or merged into one
+ * {@link AlpacaPropertySource}. Hits are found in the lowest layer only, the worst case for a
+ * chain.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PropertyLookupBenchmark {
+	@Param({"1000"})
+	public int keys;
+
+	@Param({"1", "8", "32"})
+	public int layers;
+
+	private ZookeeperPropertySource         source;
+	private PropertySourcesPropertyResolver chain;
+	private PropertySourcesPropertyResolver alpaca;
+	private String[]                        hits;
+	private String[]                        misses;
+	private int                             next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		// never started, the sources are built from trees in memory
+		CuratorFramework curator = CuratorFrameworkFactory.newClient("127.0.0.1:2181", new RetryOneTime(100));
+		MutablePropertySources chainSources = new MutablePropertySources();
+		MutablePropertySources alpacaSources = new MutablePropertySources();
+		AlpacaPropertySource composite = AlpacaPropertySource.get(alpacaSources);
+		for (int layer = 0; layer < layers; layer++) {
+			// each layer under a prefix of its own, the hits are the keys of the last one
+			String root = "/config/applications/layer" + layer + "/dev";
+			ZookeeperPropertySource layerSource = new ZookeeperPropertySource(root, "layer" + layer, curator,
+					TreeFixtures.tree(root, keys, 3, 32));
+			chainSources.addLast(layerSource);
+			composite.addLast(layerSource);
+			source = layerSource;
+		}
+		chain = new PropertySourcesPropertyResolver(chainSources);
+		alpaca = new PropertySourcesPropertyResolver(alpacaSources);
+
+		hits = source.getPropertyNames();
+		misses = new String[hits.length];
+		for (int i = 0; i < hits.length; i++) {
+			misses[i] = hits[i] + ".missing";
+		}
+	}
+
+	private int next() {
+		int i = next;
+		next = i + 1 == hits.length ? 0 : i + 1;
+		return i;
+	}
+
+	@Benchmark
+	public Object sourceHit() {
+		return source.getProperty(hits[next()]);
+	}
+
+	@Benchmark
+	public Object sourceMiss() {
+		return source.getProperty(misses[next()]);
+	}
+
+	@Benchmark
+	public String[] sourceNames() {
+		return source.getPropertyNames();
+	}
+
+	@Benchmark
+	public String chainHit() {
+		return chain.getProperty(hits[next()]);
+	}
+
+	@Benchmark
+	public String chainMiss() {
+		return chain.getProperty(misses[next()]);
+	}
+
+	@Benchmark
+	public String alpacaHit() {
+		return alpaca.getProperty(hits[next()]);
+	}
+
+	@Benchmark
+	public String alpacaMiss() {
+		return alpaca.getProperty(misses[next()]);
+	}
+}
@@ -0,0 +1,92 @@
+package org.light.alpaca.config.benchmark;
+
+import org.light.alpaca.config.zookeeper.PropertyStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PropertyStore} against the {@link LinkedHashMap} it replaced, to build and to read.
+ * Run with {@code -prof gc} for the allocation per build; {@link StoreFootprint} measures what
+ * they retain.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PropertyStoreBenchmark {
+	@Param({"100", "1000", "10000"})
+	public int keys;
+
+	private String[]            names;
+	private String[]            values;
+	private PropertyStore       store;
+	private Map<String, Object> map;
+	private int                 next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		names = new String[keys];
+		values = new String[keys];
+		for (int i = 0; i < keys; i++) {
+			names[i] = "alpaca.datasource.bench.group" + (i % 32) + ".key" + i;
+			values[i] = "value" + i;
+		}
+		store = buildStore();
+		map = buildMap();
+	}
+
+	@Benchmark
+	public PropertyStore buildStore() {
+		PropertyStore.Builder builder = PropertyStore.builder(keys);
+		for (int i = 0; i < keys; i++) {
+			builder.put(new String(names[i]), new String(values[i]));
+		}
+		return builder.build();
+	}
+
+	@Benchmark
+	public Map<String, Object> buildMap() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		for (int i = 0; i < keys; i++) {
+			map.put(new String(names[i]), new String(values[i]));
+		}
+		return map;
+	}
+
+	private int next() {
+		int i = next;
+		next = i + 1 == keys ? 0 : i + 1;
+		return i;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public Object getStore() {
+		return store.get(names[next()]);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public Object getMap() {
+		return map.get(names[next()]);
+	}
+}
@@ -0,0 +1,50 @@
+package org.light.alpaca.config.benchmark;
+
+import org.light.alpaca.config.zookeeper.PropertyStore;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prints, as one json object per line, the heap retained by {@code contexts} contexts of
+ * {@code keys} properties each, held as {@link PropertyStore}s and as {@link LinkedHashMap}s.
+ * The contexts share their key names, as the profiles of one application do.
+ * <p>
+ * {@code java -cp benchmarks/target/benchmarks.jar org.light.alpaca.config.benchmark.StoreFootprint};
+ * java 9 and later also need {@code --add-opens java.base/java.lang=ALL-UNNAMED} and
+ * {@code --add-opens java.base/java.util=ALL-UNNAMED}.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class StoreFootprint {
+	public static void main(String[] args) {
+		int[] keyCounts = {100, 1000, 10000};
+		int[] contextCounts = {1, 8};
+		for (int keys : keyCounts) {
+			for (int contexts : contextCounts) {
+				List<PropertyStore> stores = new ArrayList<>();
+				List<Map<String, Object>> maps = new ArrayList<>();
+				for (int context = 0; context < contexts; context++) {
+					PropertyStore.Builder builder = PropertyStore.builder(keys);
+					Map<String, Object> map = new LinkedHashMap<>();
+					for (int i = 0; i < keys; i++) {
+						// fresh instances, as parsing every node yields
+						String key = "alpaca.datasource.bench.group" + (i % 32) + ".key" + i;
+						String value = i % 4 == 0 ? "true" : "value" + i;
+						builder.put(new String(key), new String(value));
+						map.put(new String(key), new String(value));
+					}
+					stores.add(builder.build());
+					maps.add(map);
+				}
+				System.out.println("{\"keys\":" + keys + ",\"contexts\":" + contexts
+						+ ",\"propertyStoreBytes\":" + GraphLayout.parseInstance(stores.toArray()).totalSize()
+						+ ",\"linkedHashMapBytes\":" + GraphLayout.parseInstance(maps.toArray()).totalSize() + "}");
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package org.light.alpaca.config.benchmark;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.light.alpaca.config.zookeeper.TreeFixtures;
+import org.light.alpaca.config.zookeeper.ZookeeperBundle;
+import org.light.alpaca.config.zookeeper.ZookeeperBundlePublisher;
+import org.light.alpaca.config.zookeeper.ZookeeperPropertySource;
+import org.light.alpaca.config.zookeeper.ZookeeperTree;
+import org.light.alpaca.config.zookeeper.ZookeeperTreeLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a context from an in-process zookeeper, behind an optional {@link LatencyProxy}:
+ * the pipelined {@link ZookeeperTreeLoader} against one blocking read after the other, the way
+ * contexts were read before, loading the context's {@link ZookeeperBundle}, and the property
+ * source built on top of a loaded tree.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TreeLoadBenchmark {
+	private static final String ROOT = "/config/applications/bench/dev";
+
+	@Param({"100", "1000"})
+	public int nodes;
+
+	@Param({"2", "4"})
+	public int depth;
+
+	@Param({"32"})
+	public int valueSize;
+
+	/**
+	 * one-way delay added by the proxy
+	 */
+	@Param({"0", "1"})
+	public int latencyMs;
+
+	private TestingServer       server;
+	private LatencyProxy        proxy;
+	private CuratorFramework    curator;
+	private ZookeeperTreeLoader loader;
+	private ZookeeperTreeLoader bundleLoader;
+	private ZookeeperTree       tree;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		server = new TestingServer();
+		proxy = new LatencyProxy(server.getPort(), latencyMs);
+		curator = CuratorFrameworkFactory.newClient(proxy.getConnectString(), new RetryOneTime(100));
+		curator.start();
+		curator.blockUntilConnected();
+		TreeFixtures.create(curator, ROOT, nodes, depth, valueSize);
+		loader = new ZookeeperTreeLoader(curator);
+		tree = ZookeeperTreeLoader.await(loader.load(ROOT));
+		new ZookeeperBundlePublisher(curator).publish(ROOT);
+		bundleLoader = new ZookeeperTreeLoader(curator);
+		bundleLoader.setBundles(true);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		curator.close();
+		proxy.close();
+		server.close();
+	}
+
+	@Benchmark
+	public ZookeeperTree pipelined() {
+		return ZookeeperTreeLoader.await(loader.load(ROOT));
+	}
+
+	@Benchmark
+	public ZookeeperTree bundle() {
+		return ZookeeperTreeLoader.await(bundleLoader.load(ROOT));
+	}
+
+	@Benchmark
+	public Map<String, Object> sequential() throws Exception {
+		Map<String, Object> properties = new HashMap<>();
+		read(ROOT, properties);
+		return properties;
+	}
+
+	@Benchmark
+	public String[] propertySource() {
+		return new ZookeeperPropertySource(ROOT, "", curator, tree).getPropertyNames();
+	}
+
+	private void read(String path, Map<String, Object> properties) throws Exception {
+		List<String> children = curator.getChildren().forPath(path);
+		for (String child : children) {
+			String childPath = path + "/" + child;
+			byte[] data = curator.getData().forPath(childPath);
+			if (data != null && data.length > 0) {
+				properties.put(childPath, new String(data, Charset.forName("UTF-8")));
+			}
+			read(childPath, properties);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic zookeeper trees for the benchmarks: {@code leaves} leaf nodes of {@code valueSize}
+ * bytes each, {@code depth} levels below the root, spread evenly over the levels in between.
+ * Lives in the zookeeper package to reach the package-private {@link ZookeeperTree} constructor.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public final class TreeFixtures {
+	private TreeFixtures() {
+	}
+
+	/**
+	 * @return the data of every node below the root, parents before their children
+	 */
+	public static Map<String, byte[]> nodes(String root, int leaves, int depth, int valueSize) {
+		int fanOut = Math.max(2, (int) Math.ceil(Math.pow(leaves, 1.0 / depth)));
+		Map<String, byte[]> nodes = new LinkedHashMap<>();
+		for (int leaf = 0; leaf < leaves; leaf++) {
+			StringBuilder path = new StringBuilder(root);
+			int rest = leaf;
+			for (int level = 0; level < depth; level++) {
+				path.append('/').append((char) ('a' + level)).append(rest % fanOut);
+				rest /= fanOut;
+				if (level < depth - 1 && !nodes.containsKey(path.toString())) {
+					nodes.put(path.toString(), new byte[0]);
+				}
+			}
+			nodes.put(path.toString(), value(leaf, valueSize));
+		}
+		return nodes;
+	}
+
+	public static ZookeeperTree tree(String root, int leaves, int depth, int valueSize) {
+		Map<String, byte[]> data = new HashMap<>();
+		Map<String, List<String>> children = new HashMap<>();
+		data.put(root, new byte[0]);
+		children.put(root, new ArrayList<>());
+		for (Map.Entry<String, byte[]> node : nodes(root, leaves, depth, valueSize).entrySet()) {
+			String path = node.getKey();
+			int slash = path.lastIndexOf('/');
+			data.put(path, node.getValue());
+			children.computeIfAbsent(path, p -> new ArrayList<>());
+			children.get(path.substring(0, slash)).add(path.substring(slash + 1));
+		}
+		return new ZookeeperTree(root, null, data, children);
+	}
+
+	public static void create(CuratorFramework curator, String root, int leaves, int depth, int valueSize) throws Exception {
+		curator.create().creatingParentsIfNeeded().forPath(root);
+		for (Map.Entry<String, byte[]> node : nodes(root, leaves, depth, valueSize).entrySet()) {
+			curator.create().forPath(node.getKey(), node.getValue());
+		}
+	}
+
+	private static byte[] value(int leaf, int valueSize) {
+		byte[] value = new byte[valueSize];
+		Arrays.fill(value, (byte) ('a' + leaf % 26));
+		return value;
+	}
+}
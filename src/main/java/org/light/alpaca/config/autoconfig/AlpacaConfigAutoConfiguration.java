@@ -1,10 +1,23 @@
 package org.light.alpaca.config.autoconfig;
 
+import org.apache.curator.framework.CuratorFramework;
+import org.light.alpaca.config.bootstrap.AlpacaConfig;
+import org.light.alpaca.config.bootstrap.AlpacaConfigWatcher;
+import org.light.alpaca.config.bootstrap.AlpacaConfigurationPropertiesPrefetcher;
+import org.light.alpaca.config.bootstrap.AlpacaConfigurationPropertiesRebinder;
 import org.light.alpaca.config.bootstrap.AlpacaInstantiationAwareBeanPostProcessor;
+import org.light.alpaca.config.metrics.AlpacaConfigHealthIndicator;
+import org.light.alpaca.config.metrics.AlpacaConfigPublicMetrics;
+import org.light.alpaca.config.metrics.ConfigMetrics;
+import org.light.alpaca.config.zookeeper.ZookeeperContextWatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.ConfigurableEnvironment;
 
 /**
  * @author Lee
@@ -18,4 +31,41 @@ public class AlpacaConfigAutoConfiguration {
 	public AlpacaInstantiationAwareBeanPostProcessor alpacaBeanPostProcessor() {
 		return new AlpacaInstantiationAwareBeanPostProcessor();
 	}
+
+	@Bean
+	public static AlpacaConfigurationPropertiesPrefetcher alpacaConfigurationPropertiesPrefetcher() {
+		return new AlpacaConfigurationPropertiesPrefetcher();
+	}
+
+	@Bean
+	@ConditionalOnBean(ZookeeperContextWatcher.class)
+	public AlpacaConfigurationPropertiesRebinder alpacaConfigurationPropertiesRebinder(AlpacaInstantiationAwareBeanPostProcessor alpacaBeanPostProcessor, ZookeeperContextWatcher watcher) {
+		return new AlpacaConfigurationPropertiesRebinder(alpacaBeanPostProcessor, watcher);
+	}
+
+	@Bean
+	public AlpacaConfigWatcher alpacaConfigWatcher(ConfigurableEnvironment environment) {
+		return new AlpacaConfigWatcher(environment);
+	}
+
+	@Bean
+	public AlpacaConfig alpacaConfig(ConfigurableEnvironment environment) {
+		return new AlpacaConfig(environment);
+	}
+
+	@Configuration
+	@ConditionalOnClass(PublicMetrics.class)
+	@ConditionalOnBean(ConfigMetrics.class)
+	protected static class AlpacaConfigMetricsConfiguration {
+		@Bean
+		public AlpacaConfigPublicMetrics alpacaConfigPublicMetrics(ConfigMetrics metrics) {
+			return new AlpacaConfigPublicMetrics(metrics);
+		}
+
+		@Bean
+		@ConditionalOnBean(CuratorFramework.class)
+		public AlpacaConfigHealthIndicator alpacaConfigHealthIndicator(CuratorFramework curator, ConfigMetrics metrics) {
+			return new AlpacaConfigHealthIndicator(curator, metrics);
+		}
+	}
 }
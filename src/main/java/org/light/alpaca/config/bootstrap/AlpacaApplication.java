@@ -38,4 +38,17 @@ public class AlpacaApplication {
 				       .run(args);
 	}
 
+	/**
+	 * Runs the application with the git config, the zookeeper client and the zookeeper trees
+	 * shared through {@code cache}, see {@link AlpacaBootstrapCache}.
+	 */
+	public static ConfigurableApplicationContext run(Object[] source, AlpacaBootstrapCache cache, String... args) {
+		return new SpringApplicationBuilder()
+				       .initializers(new AlpacaContextInitializer(cache))
+				       .sources(source)
+				       .properties("spring.config.name:" + BOOTSTRAP_PROPERTY_SOURCE_NAME)
+				       .bannerMode(Banner.Mode.OFF)
+				       .run(args);
+	}
+
 }
@@ -0,0 +1,112 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.light.alpaca.config.zookeeper.ZookeeperSnapshotStore;
+import org.light.alpaca.config.zookeeper.ZookeeperTreeLoader;
+import org.apache.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bootstrap results shared by every context an {@link AlpacaContextInitializer} initializes with
+ * it, typically the many test contexts of one JVM:
+ * <ul>
+ * <li>the git config, read once per application name, active profiles and label,</li>
+ * <li>one curator client per client settings, which the contexts never close,</li>
+ * <li>an in-memory {@link ZookeeperSnapshotStore} per connect string, so a context read once is
+ * only revalidated node by node afterwards.</li>
+ * </ul>
+ * Contexts initialized at the same time wait for the same git read instead of syncing the
+ * repository twice.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class AlpacaBootstrapCache implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(AlpacaBootstrapCache.class);
+
+	private static volatile AlpacaBootstrapCache shared;
+
+	private final ConcurrentMap<String, CompletableFuture<Map<String, Map<String, Object>>>> gitConfig      = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, CuratorFramework>                                   curators       = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ZookeeperSnapshotStore>                             snapshotStores = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the cache of this JVM, closed when the JVM shuts down
+	 */
+	public static AlpacaBootstrapCache shared() {
+		AlpacaBootstrapCache cache = shared;
+		if (cache == null) {
+			synchronized (AlpacaBootstrapCache.class) {
+				cache = shared;
+				if (cache == null) {
+					cache = shared = new AlpacaBootstrapCache();
+					Runtime.getRuntime().addShutdownHook(new Thread(cache::close, "alpaca-bootstrap-cache"));
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * @return the git config of each profile, read by {@code reader} unless it was read before
+	 */
+	Map<String, Map<String, Object>> gitConfig(String applicationName, String[] profiles, String label,
+	                                           Supplier<Map<String, Map<String, Object>>> reader) {
+		String key = applicationName + "|" + Arrays.toString(profiles) + "|" + label;
+		CompletableFuture<Map<String, Map<String, Object>>> config = gitConfig.get(key);
+		if (config == null) {
+			CompletableFuture<Map<String, Map<String, Object>>> reading = new CompletableFuture<>();
+			config = gitConfig.putIfAbsent(key, reading);
+			if (config == null) {
+				try {
+					reading.complete(reader.get());
+				} catch (RuntimeException e) {
+					// let the next context try again
+					gitConfig.remove(key, reading);
+					reading.completeExceptionally(e);
+				}
+				config = reading;
+			}
+		}
+		return ZookeeperTreeLoader.await(config);
+	}
+
+	/**
+	 * @param settings the connect string and every other setting the client is started with
+	 * @return the client of {@code settings}, started by {@code factory} unless there is one
+	 */
+	CuratorFramework curator(String settings, Function<String, CuratorFramework> factory) {
+		return curators.computeIfAbsent(settings, factory);
+	}
+
+	boolean isShared(CuratorFramework curator) {
+		return curators.containsValue(curator);
+	}
+
+	ZookeeperSnapshotStore snapshotStore(String connectString) {
+		return snapshotStores.computeIfAbsent(connectString, ZookeeperSnapshotStore::inMemory);
+	}
+
+	@Override
+	public void close() {
+		gitConfig.clear();
+		snapshotStores.clear();
+		for (CuratorFramework curator : curators.values()) {
+			try {
+				curator.close();
+			} catch (RuntimeException e) {
+				LOG.warn("Could not close curator client", e);
+			}
+		}
+		curators.clear();
+	}
+}
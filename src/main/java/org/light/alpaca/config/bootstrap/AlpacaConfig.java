@@ -0,0 +1,361 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.light.alpaca.config.zookeeper.ZookeeperContextWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.ConfigurableEnvironment;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typed handles on keys read on hot paths, instead of {@code Environment.getProperty(key, type)},
+ * which walks the property sources and converts the string value on every call:
+ * <pre>
+ * IntKey maxOrders = config.intKey("limits.orders.max", 100);
+ * ...
+ * if (count &gt; maxOrders.get()) ...
+ * </pre>
+ * The values of all handles are converted once, whenever one of their keys changed, into an
+ * immutable {@link Snapshot}. A read is one volatile load and an array access, without allocating.
+ * Keys that have to agree with each other are read from the same snapshot:
+ * <pre>
+ * Snapshot snapshot = config.snapshot();
+ * if (enabled.get(snapshot) &amp;&amp; count &gt; maxOrders.get(snapshot)) ...
+ * </pre>
+ * Numbers and booleans are converted by the environment's conversion service, so a handle reads
+ * what {@code Environment.getProperty(key, type)} does, e.g. {@code 0x10} as 16. A value that does
+ * not convert leaves the key at its default.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class AlpacaConfig implements ZookeeperContextWatcher.Listener, ApplicationListener<GitConfigChangedEvent>,
+                                     ApplicationContextAware, SmartInitializingSingleton {
+	private static final Logger LOG = LoggerFactory.getLogger(AlpacaConfig.class);
+
+	private final ConfigurableEnvironment environment;
+	/**
+	 * in the order of their index, guarded by this
+	 */
+	private final List<Handle>            handles = new ArrayList<>();
+	private volatile Snapshot             snapshot = new Snapshot(0, new long[0], new Object[0]);
+	private ApplicationContext            context;
+
+	public AlpacaConfig(ConfigurableEnvironment environment) {
+		this.environment = environment;
+	}
+
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+		context = applicationContext;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		if (context != null && context.getBeanNamesForType(ZookeeperContextWatcher.class).length > 0) {
+			context.getBean(ZookeeperContextWatcher.class).addListener(this);
+		}
+	}
+
+	public synchronized IntKey intKey(String key, int defaultValue) {
+		return register(new IntKey(this, key, handles.size(), defaultValue));
+	}
+
+	public synchronized LongKey longKey(String key, long defaultValue) {
+		return register(new LongKey(this, key, handles.size(), defaultValue));
+	}
+
+	public synchronized BooleanKey booleanKey(String key, boolean defaultValue) {
+		return register(new BooleanKey(this, key, handles.size(), defaultValue));
+	}
+
+	/**
+	 * @param key a value like {@code 500}, {@code 500ms}, {@code 30s}, {@code 5m}, {@code 1h},
+	 *            {@code 1d} or {@code PT30S}; plain numbers are milliseconds
+	 */
+	public synchronized DurationKey durationKey(String key, Duration defaultValue) {
+		return register(new DurationKey(this, key, handles.size(), defaultValue));
+	}
+
+	/**
+	 * @return the current values of all handles
+	 */
+	public Snapshot snapshot() {
+		return snapshot;
+	}
+
+	@Override
+	public void onChange(Set<String> keys) {
+		changed(keys);
+	}
+
+	@Override
+	public void onApplicationEvent(GitConfigChangedEvent event) {
+		changed(event.getKeys());
+	}
+
+	private void changed(Set<String> keys) {
+		boolean affected = false;
+		synchronized (this) {
+			for (Handle handle : handles) {
+				if (keys.contains(handle.key)) {
+					affected = true;
+					break;
+				}
+			}
+		}
+		if (affected) {
+			refresh();
+		}
+	}
+
+	/**
+	 * Converts the values of all handles again and publishes them as a new snapshot.
+	 */
+	public synchronized void refresh() {
+		Snapshot previous = snapshot;
+		long[] numbers = new long[handles.size()];
+		Object[] objects = new Object[handles.size()];
+		for (Handle handle : handles) {
+			handle.load(numbers, objects);
+		}
+		snapshot = new Snapshot(previous.version + 1, numbers, objects);
+		LOG.debug("config snapshot {} of {} keys", snapshot.version, handles.size());
+	}
+
+	private <H extends Handle> H register(H handle) {
+		handles.add(handle);
+		Snapshot previous = snapshot;
+		long[] numbers = Arrays.copyOf(previous.numbers, handles.size());
+		Object[] objects = Arrays.copyOf(previous.objects, handles.size());
+		handle.load(numbers, objects);
+		snapshot = new Snapshot(previous.version, numbers, objects);
+		return handle;
+	}
+
+	/**
+	 * The values of all handles at one point in time.
+	 */
+	public static final class Snapshot {
+		private final long     version;
+		private final long[]   numbers;
+		private final Object[] objects;
+
+		Snapshot(long version, long[] numbers, Object[] objects) {
+			this.version = version;
+			this.numbers = numbers;
+			this.objects = objects;
+		}
+
+		/**
+		 * @return the number of refreshes before this snapshot
+		 */
+		public long getVersion() {
+			return version;
+		}
+	}
+
+	public abstract static class Handle {
+		final AlpacaConfig config;
+		final String       key;
+		final int          index;
+
+		Handle(AlpacaConfig config, String key, int index) {
+			this.config = config;
+			this.key = key;
+			this.index = index;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Stores the converted value, or the default, at {@link #index}.
+		 */
+		void load(long[] numbers, Object[] objects) {
+			String value = config.environment.getProperty(key);
+			if (value != null) {
+				try {
+					convert(value.trim(), numbers, objects);
+					return;
+				} catch (RuntimeException e) {
+					LOG.warn("Ignoring invalid value of {}: {}", key, value);
+				}
+			}
+			loadDefault(numbers, objects);
+		}
+
+		abstract void convert(String value, long[] numbers, Object[] objects);
+
+		abstract void loadDefault(long[] numbers, Object[] objects);
+
+		/**
+		 * @return whether the snapshot knows this handle, it does not if it was taken before the handle was created
+		 */
+		final boolean in(Snapshot snapshot) {
+			return index < snapshot.numbers.length;
+		}
+	}
+
+	public static final class IntKey extends Handle {
+		private final int defaultValue;
+
+		IntKey(AlpacaConfig config, String key, int index, int defaultValue) {
+			super(config, key, index);
+			this.defaultValue = defaultValue;
+		}
+
+		public int get() {
+			return get(config.snapshot);
+		}
+
+		public int get(Snapshot snapshot) {
+			return in(snapshot) ? (int) snapshot.numbers[index] : defaultValue;
+		}
+
+		@Override
+		void convert(String value, long[] numbers, Object[] objects) {
+			numbers[index] = config.environment.getConversionService().convert(value, Integer.class);
+		}
+
+		@Override
+		void loadDefault(long[] numbers, Object[] objects) {
+			numbers[index] = defaultValue;
+		}
+	}
+
+	public static final class LongKey extends Handle {
+		private final long defaultValue;
+
+		LongKey(AlpacaConfig config, String key, int index, long defaultValue) {
+			super(config, key, index);
+			this.defaultValue = defaultValue;
+		}
+
+		public long get() {
+			return get(config.snapshot);
+		}
+
+		public long get(Snapshot snapshot) {
+			return in(snapshot) ? snapshot.numbers[index] : defaultValue;
+		}
+
+		@Override
+		void convert(String value, long[] numbers, Object[] objects) {
+			numbers[index] = config.environment.getConversionService().convert(value, Long.class);
+		}
+
+		@Override
+		void loadDefault(long[] numbers, Object[] objects) {
+			numbers[index] = defaultValue;
+		}
+	}
+
+	public static final class BooleanKey extends Handle {
+		private final boolean defaultValue;
+
+		BooleanKey(AlpacaConfig config, String key, int index, boolean defaultValue) {
+			super(config, key, index);
+			this.defaultValue = defaultValue;
+		}
+
+		public boolean get() {
+			return get(config.snapshot);
+		}
+
+		public boolean get(Snapshot snapshot) {
+			return in(snapshot) ? snapshot.numbers[index] != 0 : defaultValue;
+		}
+
+		@Override
+		void convert(String value, long[] numbers, Object[] objects) {
+			numbers[index] = config.environment.getConversionService().convert(value, Boolean.class) ? 1 : 0;
+		}
+
+		@Override
+		void loadDefault(long[] numbers, Object[] objects) {
+			numbers[index] = defaultValue ? 1 : 0;
+		}
+	}
+
+	public static final class DurationKey extends Handle {
+		private final Duration defaultValue;
+
+		DurationKey(AlpacaConfig config, String key, int index, Duration defaultValue) {
+			super(config, key, index);
+			this.defaultValue = defaultValue;
+		}
+
+		public Duration get() {
+			return get(config.snapshot);
+		}
+
+		public Duration get(Snapshot snapshot) {
+			return in(snapshot) ? (Duration) snapshot.objects[index] : defaultValue;
+		}
+
+		public long getMillis() {
+			return getMillis(config.snapshot);
+		}
+
+		public long getMillis(Snapshot snapshot) {
+			return in(snapshot) ? snapshot.numbers[index] : defaultValue.toMillis();
+		}
+
+		@Override
+		void convert(String value, long[] numbers, Object[] objects) {
+			Duration duration = parse(value);
+			objects[index] = duration;
+			numbers[index] = duration.toMillis();
+		}
+
+		@Override
+		void loadDefault(long[] numbers, Object[] objects) {
+			objects[index] = defaultValue;
+			numbers[index] = defaultValue.toMillis();
+		}
+
+		static Duration parse(String value) {
+			String lower = value.toLowerCase(Locale.ROOT);
+			if (lower.startsWith("p") || lower.startsWith("-p")) {
+				return Duration.parse(value);
+			}
+			int end = lower.length();
+			while (end > 0 && !Character.isDigit(lower.charAt(end - 1))) {
+				end--;
+			}
+			long amount = Long.parseLong(lower.substring(0, end));
+			switch (lower.substring(end).trim()) {
+				case "":
+				case "ms":
+					return Duration.ofMillis(amount);
+				case "ns":
+					return Duration.ofNanos(amount);
+				case "us":
+					return Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(amount));
+				case "s":
+					return Duration.ofSeconds(amount);
+				case "m":
+					return Duration.ofMinutes(amount);
+				case "h":
+					return Duration.ofHours(amount);
+				case "d":
+					return Duration.ofDays(amount);
+				default:
+					throw new IllegalArgumentException("Unknown unit in " + value);
+			}
+		}
+	}
+}
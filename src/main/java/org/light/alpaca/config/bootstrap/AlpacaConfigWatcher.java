@@ -0,0 +1,254 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.light.alpaca.config.zookeeper.ZookeeperContextWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.util.ObjectUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells code about changes of the keys it subscribed to, with the value before and after the
+ * change:
+ * <pre>
+ * watcher.subscribe("limits.orders", event -&gt; limiter.setRate(event.getNewValue(Double.class)));
+ * </pre>
+ * Changes come from the watched zookeeper contexts ({@code zhao.alpaca.zookeeper.watch}) and from
+ * the git poller. The values are the ones the environment resolves, so a change hidden by a
+ * higher precedence source is no change.
+ * <p>
+ * The zookeeper watcher and the git poller only record the changes of each subscription, one
+ * change at a time, and hand the subscription to a small, bounded executor; when the executor is
+ * full the changes are delivered on the thread that reported them. A subscription is called on
+ * one thread at a time; a key that changes again before its listener got to it is delivered
+ * once, with the latest value. A slow listener delays its own events only.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class AlpacaConfigWatcher implements ZookeeperContextWatcher.Listener, ApplicationListener<GitConfigChangedEvent>,
+                                            ApplicationContextAware, SmartInitializingSingleton, DisposableBean {
+	private static final Logger LOG              = LoggerFactory.getLogger(AlpacaConfigWatcher.class);
+	static final         int    DISPATCH_THREADS = 2;
+	static final         int    MAX_PENDING      = 1024;
+
+	public interface ChangeListener {
+		/**
+		 * Called on a dispatcher thread, never concurrently for the same subscription.
+		 */
+		void onChange(ConfigChangeEvent event);
+	}
+
+	private final ConfigurableEnvironment   environment;
+	private final ThreadPoolExecutor        executor;
+	private final AtomicLong                version       = new AtomicLong();
+	private final CopyOnWriteArrayList<Sub> subscriptions = new CopyOnWriteArrayList<>();
+	/**
+	 * held while recording a change, and while seeding and adding a subscription
+	 */
+	private final Object                    changes       = new Object();
+	private       ApplicationContext        context;
+
+	public AlpacaConfigWatcher(ConfigurableEnvironment environment) {
+		this(environment, DISPATCH_THREADS);
+	}
+
+	public AlpacaConfigWatcher(ConfigurableEnvironment environment, int dispatchThreads) {
+		this.environment = environment;
+		final AtomicInteger threads = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_PENDING), r -> {
+			Thread thread = new Thread(r, "alpaca-config-dispatch-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+		context = applicationContext;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		if (context != null && context.getBeanNamesForType(ZookeeperContextWatcher.class).length > 0) {
+			context.getBean(ZookeeperContextWatcher.class).addListener(this);
+		}
+	}
+
+	/**
+	 * @param prefix   the key itself, or the prefix of the keys to follow, empty for every key
+	 * @param listener called for every change of a matching key from now on
+	 * @return the subscription, to be closed once the listener is no longer interested
+	 */
+	public Subscription subscribe(String prefix, ChangeListener listener) {
+		Sub sub = new Sub(prefix, listener);
+		// every source that changes may hold the key, the git config as well as zookeeper
+		Set<String> keys = new HashSet<>();
+		for (PropertySource<?> propertySource : environment.getPropertySources()) {
+			if (propertySource instanceof EnumerablePropertySource) {
+				for (String key : ((EnumerablePropertySource<?>) propertySource).getPropertyNames()) {
+					if (sub.matches(key)) {
+						keys.add(key);
+					}
+				}
+			}
+		}
+		// a change recorded before is in the values read here, one recorded after is delivered
+		synchronized (changes) {
+			for (String key : keys) {
+				try {
+					String value = environment.getProperty(key);
+					if (value != null) {
+						sub.current.put(key, value);
+					}
+				} catch (IllegalArgumentException e) {
+					// a placeholder that does not resolve, e.g. in an environment variable
+					LOG.trace("not following {}: {}", key, e.toString());
+				}
+			}
+			subscriptions.add(sub);
+		}
+		LOG.debug("subscribed to {} ({} keys)", prefix, sub.current.size());
+		return sub;
+	}
+
+	@Override
+	public void onChange(Set<String> keys) {
+		changed(keys);
+	}
+
+	@Override
+	public void onApplicationEvent(GitConfigChangedEvent event) {
+		changed(event.getKeys());
+	}
+
+	private void changed(Set<String> keys) {
+		if (subscriptions.isEmpty()) {
+			return;
+		}
+		List<Sub> changed = new ArrayList<>();
+		// the zookeeper watcher and the git poller may report at the same time
+		synchronized (changes) {
+			long version = this.version.incrementAndGet();
+			for (Sub sub : subscriptions) {
+				boolean any = false;
+				for (String key : keys) {
+					if (sub.matches(key)) {
+						any |= sub.changed(key, environment.getProperty(key), version);
+					}
+				}
+				if (any) {
+					changed.add(sub);
+				}
+			}
+		}
+		for (Sub sub : changed) {
+			sub.schedule();
+		}
+	}
+
+	@Override
+	public void destroy() {
+		subscriptions.clear();
+		executor.shutdownNow();
+	}
+
+	public interface Subscription {
+		void close();
+	}
+
+	private class Sub implements Subscription, Runnable {
+		final String         prefix;
+		final ChangeListener listener;
+		/**
+		 * the value of each key as the listener knows it
+		 */
+		final ConcurrentMap<String, String>            current   = new ConcurrentHashMap<>();
+		final ConcurrentMap<String, ConfigChangeEvent> pending   = new ConcurrentHashMap<>();
+		final AtomicBoolean                            scheduled = new AtomicBoolean();
+
+		Sub(String prefix, ChangeListener listener) {
+			this.prefix = prefix == null ? "" : prefix;
+			this.listener = listener;
+		}
+
+		boolean matches(String key) {
+			return prefix.isEmpty() || key.startsWith(prefix) && (key.length() == prefix.length() || key.charAt(prefix.length()) == '.');
+		}
+
+		/**
+		 * @return whether there is something to deliver
+		 */
+		boolean changed(String key, String value, long version) {
+			String previous = value == null ? current.remove(key) : current.put(key, value);
+			if (ObjectUtils.nullSafeEquals(previous, value)) {
+				return false;
+			}
+			pending.merge(key, new ConfigChangeEvent(key, previous, value, version, environment.getConversionService()), ConfigChangeEvent::merge);
+			return true;
+		}
+
+		void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					LOG.warn("Could not dispatch changes of {}, delivering them on this thread: {}", prefix, e.toString());
+					run();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (String key : pending.keySet()) {
+					ConfigChangeEvent event = pending.remove(key);
+					if (event == null || ObjectUtils.nullSafeEquals(event.getOldValue(), event.getNewValue())) {
+						// changed back before the listener saw it
+						continue;
+					}
+					try {
+						listener.onChange(event);
+					} catch (RuntimeException e) {
+						LOG.warn("Configuration change listener of " + prefix + " failed on " + event, e);
+					}
+				}
+			} finally {
+				scheduled.set(false);
+			}
+			if (!pending.isEmpty() && subscriptions.contains(this)) {
+				schedule();
+			}
+		}
+
+		@Override
+		public void close() {
+			subscriptions.remove(this);
+			pending.clear();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.light.alpaca.config.zookeeper.ZookeeperContext;
+import org.light.alpaca.config.zookeeper.ZookeeperContextCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.PriorityOrdered;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.MethodMetadata;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the alpaca @ConfigurationProperties prefixes among the bean definitions and loads all of
+ * their contexts in one concurrent batch, before any bean is created. The bean post-processor then
+ * finds every context already in place.
+ *
+ * @author Lee
+ * @date 2016/11/30 0030
+ */
+public class AlpacaConfigurationPropertiesPrefetcher implements BeanFactoryPostProcessor, EnvironmentAware, PriorityOrdered {
+	private static final Logger LOG = LoggerFactory.getLogger(AlpacaConfigurationPropertiesPrefetcher.class);
+
+	private ConfigurableEnvironment env;
+
+	@Override
+	public void setEnvironment(Environment environment) {
+		env = (ConfigurableEnvironment) environment;
+	}
+
+	@Override
+	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+		if (!beanFactory.containsBean(ZookeeperContextCache.class.getName())) {
+			return;
+		}
+		ZookeeperContextCache contextCache = beanFactory.getBean(ZookeeperContextCache.class);
+
+		Set<String> prefixes = new LinkedHashSet<>();
+		for (String beanName : beanFactory.getBeanDefinitionNames()) {
+			String prefix = findPrefix(beanFactory, beanFactory.getBeanDefinition(beanName));
+			if (prefix != null && AlpacaInstantiationAwareBeanPostProcessor.isAlpacaPrefix(prefix) && env.getProperty(prefix, "null").equals("null")) {
+				prefixes.add(prefix);
+			}
+		}
+		if (prefixes.isEmpty()) {
+			return;
+		}
+
+		List<String> activeProfiles = Arrays.asList(env.getActiveProfiles());
+		List<List<ZookeeperContext>> contexts = new ArrayList<>();
+		for (String prefix : prefixes) {
+			List<ZookeeperContext> prefixContexts = AlpacaInstantiationAwareBeanPostProcessor.contexts(prefix, activeProfiles);
+			for (ZookeeperContext context : prefixContexts) {
+				// start every read before waiting for any of them
+				if (!contextCache.isLazy(context)) {
+					contextCache.load(context);
+				}
+			}
+			contexts.add(prefixContexts);
+		}
+		for (List<ZookeeperContext> prefixContexts : contexts) {
+			contextCache.addPropertySources(env.getPropertySources(), prefixContexts);
+		}
+		LOG.info("prefetched zookeeper contexts for {}", prefixes);
+	}
+
+	private String findPrefix(ConfigurableListableBeanFactory beanFactory, BeanDefinition definition) {
+		Map<String, Object> attributes = null;
+		if (definition instanceof AnnotatedBeanDefinition) {
+			MethodMetadata factoryMethod = ((AnnotatedBeanDefinition) definition).getFactoryMethodMetadata();
+			if (factoryMethod != null) {
+				attributes = factoryMethod.getAnnotationAttributes(ConfigurationProperties.class.getName());
+			} else {
+				attributes = ((AnnotatedBeanDefinition) definition).getMetadata().getAnnotationAttributes(ConfigurationProperties.class.getName());
+			}
+		} else if (definition.getFactoryMethodName() == null && definition.getBeanClassName() != null) {
+			try {
+				Class<?> beanClass = ClassUtils.forName(definition.getBeanClassName(), beanFactory.getBeanClassLoader());
+				ConfigurationProperties annotation = AnnotationUtils.findAnnotation(beanClass, ConfigurationProperties.class);
+				if (annotation != null) {
+					attributes = AnnotationUtils.getAnnotationAttributes(annotation);
+				}
+			} catch (ClassNotFoundException | LinkageError e) {
+				LOG.trace("could not inspect {}: {}", definition.getBeanClassName(), e.toString());
+			}
+		}
+		if (attributes == null) {
+			return null;
+		}
+		String prefix = (String) attributes.get("value");
+		return StringUtils.hasText(prefix) ? prefix : (String) attributes.get("prefix");
+	}
+
+	@Override
+	public int getOrder() {
+		return PriorityOrdered.HIGHEST_PRECEDENCE;
+	}
+}
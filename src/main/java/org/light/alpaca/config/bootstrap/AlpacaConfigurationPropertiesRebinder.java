@@ -0,0 +1,89 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.light.alpaca.config.zookeeper.ZookeeperContextWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.context.properties.ConfigurationPropertiesBindingPostProcessor;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rebinds the @ConfigurationProperties beans whose prefix covers a changed key, using the
+ * prefixes collected by {@link AlpacaInstantiationAwareBeanPostProcessor}.
+ *
+ * @author Lee
+ * @date 2016/11/09 0009
+ */
+public class AlpacaConfigurationPropertiesRebinder implements ZookeeperContextWatcher.Listener, ApplicationContextAware, SmartInitializingSingleton {
+	private static final Logger LOG = LoggerFactory.getLogger(AlpacaConfigurationPropertiesRebinder.class);
+
+	private final AlpacaInstantiationAwareBeanPostProcessor postProcessor;
+	private final ZookeeperContextWatcher                   watcher;
+	private       ConfigurableApplicationContext            context;
+
+	public AlpacaConfigurationPropertiesRebinder(AlpacaInstantiationAwareBeanPostProcessor postProcessor, ZookeeperContextWatcher watcher) {
+		this.postProcessor = postProcessor;
+		this.watcher = watcher;
+	}
+
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+		context = (ConfigurableApplicationContext) applicationContext;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		watcher.addListener(this);
+	}
+
+	@Override
+	public void onChange(Set<String> keys) {
+		for (Map.Entry<String, String> entry : postProcessor.getConfigurationPropertiesPrefixes().entrySet()) {
+			if (affects(entry.getValue(), keys) && context.getBeanFactory().containsSingleton(entry.getKey())) {
+				rebind(entry.getKey());
+			}
+		}
+	}
+
+	private void rebind(String beanName) {
+		try {
+			Object bean = context.getBean(beanName);
+			if (AopUtils.isAopProxy(bean) && bean instanceof Advised) {
+				bean = ((Advised) bean).getTargetSource().getTarget();
+			}
+			context.getBean(ConfigurationPropertiesBindingPostProcessor.class).postProcessBeforeInitialization(bean, beanName);
+			LOG.info("rebound {}", beanName);
+		} catch (Exception e) {
+			LOG.warn("Could not rebind " + beanName, e);
+		}
+	}
+
+	private static boolean affects(String prefix, Set<String> keys) {
+		String canonical = canonical(prefix);
+		if (canonical.isEmpty()) {
+			return true;
+		}
+		for (String key : keys) {
+			String canonicalKey = canonical(key);
+			if (canonicalKey.equals(canonical) || canonicalKey.startsWith(canonical + ".")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * relaxed binding accepts 'max-size', 'max_size' and 'maxSize' alike
+	 */
+	private static String canonical(String name) {
+		return name.replace("-", "").replace("_", "").toLowerCase();
+	}
+}
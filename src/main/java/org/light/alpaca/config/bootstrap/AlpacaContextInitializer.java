@@ -1,44 +1,134 @@
 package org.light.alpaca.config.bootstrap;
 
+import org.light.alpaca.config.metrics.ConfigMetrics;
+import org.light.alpaca.config.zookeeper.AlpacaPropertySource;
+import org.light.alpaca.config.zookeeper.CipherKeyProvider;
+import org.light.alpaca.config.zookeeper.ConfigDecryptor;
+import org.light.alpaca.config.zookeeper.KeyStoreKeyProvider;
+import org.light.alpaca.config.zookeeper.NearestServersEnsembleProvider;
 import org.light.alpaca.config.zookeeper.ZookeeperContext;
+import org.light.alpaca.config.zookeeper.ZookeeperContextCache;
+import org.light.alpaca.config.zookeeper.ZookeeperContextWatcher;
+import org.light.alpaca.config.zookeeper.ZookeeperFixtureLoader;
 import org.light.alpaca.config.zookeeper.ZookeeperProperties;
 import org.light.alpaca.config.zookeeper.ZookeeperPropertySource;
+import org.light.alpaca.config.zookeeper.ZookeeperReadLimiter;
+import org.light.alpaca.config.zookeeper.ZookeeperSnapshotStore;
+import org.light.alpaca.config.zookeeper.ZookeeperTreeLoader;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.eclipse.jgit.api.*;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.TagOpt;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.jgit.util.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.boot.bind.PropertySourcesPropertyValues;
+import org.springframework.boot.bind.RelaxedDataBinder;
 import org.springframework.boot.env.YamlPropertySourceLoader;
 import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.ConfigurableApplicationContext;
-import org.springframework.core.env.PropertySource;
+import org.springframework.context.event.ApplicationContextEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.PriorityOrdered;
+import org.springframework.core.env.ConfigurableEnvironment;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StopWatch;
 import org.springframework.util.StringUtils;
+import org.springframework.validation.FieldError;
 
 import java.io.IOException;
 import java.net.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Lee
  * @date 2016/10/20 0020
  */
 public class AlpacaContextInitializer implements ApplicationContextInitializer {
-	private static final Logger LOG                = LoggerFactory.getLogger(AlpacaContextInitializer.class);
-	private static final String APPLICATION_NAME   = "spring.application.name";
-	private static final String DEFAULT_PROPERTIES = "defaultProperties";
+	private static final Logger LOG              = LoggerFactory.getLogger(AlpacaContextInitializer.class);
+	private static final String APPLICATION_NAME = "spring.application.name";
+	private static final String ZOOKEEPER        = "zhao.alpaca.zookeeper";
+	private static final String CONNECT_STRING   = ZOOKEEPER + ".connect-string";
+	private static final String READ_CONNECT     = ZOOKEEPER + ".read-connect-string";
+
+	/**
+	 * set to true to overlap the git sync, the zookeeper handshake and the context reads
+	 */
+	public static final String CONCURRENT_BOOTSTRAP = "zhao.alpaca.bootstrap.concurrent";
+
+	/**
+	 * the branch, tag or commit id of the git config, master by default
+	 */
+	public static final String GIT_LABEL = "zhao.alpaca.git.label";
+
+	/**
+	 * set to false to read the git config from the object database instead of a checked out working tree
+	 */
+	public static final String GIT_CHECKOUT = "zhao.alpaca.git.checkout";
+
+	/**
+	 * polls the git config in the background when greater than 0, see {@link GitConfigPoller}
+	 */
+	public static final String GIT_POLL_INTERVAL_MS = "zhao.alpaca.git.poll-interval-ms";
+
+	/**
+	 * the maximum random delay added to each poll, a tenth of the interval by default
+	 */
+	public static final String GIT_POLL_JITTER_MS = "zhao.alpaca.git.poll-jitter-ms";
+
+	/**
+	 * set to true to read the git config from a bare mirror shared by all processes of the host, see
+	 * {@link GitConfigMirror}
+	 */
+	public static final String GIT_MIRROR = "zhao.alpaca.git.mirror";
+
+	/**
+	 * the directory of the shared mirrors, {@code java.io.tmpdir/alpaca-mirror} by default
+	 */
+	public static final String GIT_MIRROR_DIR = "zhao.alpaca.git.mirror-dir";
+
+	/**
+	 * the processes of the host ask the remote at most once per this many ms, 60000 by default
+	 */
+	public static final String GIT_MIRROR_FETCH_INTERVAL_MS = "zhao.alpaca.git.mirror-fetch-interval-ms";
+
+	/**
+	 * how long to wait for a fetch of another process before reading the mirror as it is, 10000 by default
+	 */
+	public static final String GIT_MIRROR_WAIT_MS = "zhao.alpaca.git.mirror-wait-ms";
+
+	/**
+	 * a resource location, e.g. classpath:alpaca-fixture, to read the whole config from instead of git and
+	 * zookeeper: {@code <location>/git/<profile>.yml} and {@code <location>/zookeeper/<context>.yml}
+	 */
+	public static final String FIXTURE = "zhao.alpaca.fixture";
 
 	private Path baseDir = Paths.get(System.getProperty("java.io.tmpdir")).resolve("alpaca");
 
@@ -46,51 +136,459 @@ public class AlpacaContextInitializer implements ApplicationContextInitializer {
 
 	private CredentialsProvider provider = new UsernamePasswordCredentialsProvider("", "");
 
+	private final ConfigMetrics metrics = new ConfigMetrics();
+
+	private final AlpacaBootstrapCache cache;
+
+	public AlpacaContextInitializer() {
+		this(null);
+	}
+
+	/**
+	 * @param cache bootstrap results to share with other contexts, may be {@code null}
+	 */
+	public AlpacaContextInitializer(AlpacaBootstrapCache cache) {
+		this.cache = cache;
+	}
+
 	@Override
 	public void initialize(ConfigurableApplicationContext applicationContext) {
 		if (!applicationContext.getEnvironment().containsProperty(APPLICATION_NAME)) {
 			throw new IllegalStateException("Please specify the application name: '" + APPLICATION_NAME + "'");
 		}
+		String fixture = applicationContext.getEnvironment().getProperty(FIXTURE);
+		if (StringUtils.hasText(fixture)) {
+			initializeFromFixture(applicationContext, fixture);
+			return;
+		}
+		if (applicationContext.getEnvironment().getProperty(CONCURRENT_BOOTSTRAP, Boolean.class, false)) {
+			initializeConcurrently(applicationContext);
+			return;
+		}
+
+		List<GitConfigPropertySource> gitConfig = loadGitConfig(applicationContext.getEnvironment());
+		addGitConfig(applicationContext, gitConfig);
+		pollGitConfig(applicationContext, gitConfig);
+
+		ZookeeperProperties properties = zookeeperProperties(applicationContext);
+		if (!properties.isEnabled()) {
+			initializeWithoutZookeeper(applicationContext, properties);
+			return;
+		}
+		CuratorFramework curator = startCurator(properties);
+		connect(curator, properties);
+
+		load(applicationContext, registerZookeeper(applicationContext, curator, properties));
+	}
+
+	/**
+	 * Overlaps the bootstrap phases: the git sync runs next to the zookeeper handshake when the
+	 * connect string is known up front, and the application contexts are read while spring goes on
+	 * preparing the context. Everything is joined before the bean definitions are processed.
+	 * <p>
+	 * A curator client started before the git sync is configured from the settings known at that time.
+	 */
+	private void initializeConcurrently(final ConfigurableApplicationContext applicationContext) {
+		final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "alpaca-bootstrap");
+			thread.setDaemon(true);
+			return thread;
+		});
+		CompletableFuture<List<GitConfigPropertySource>> gitConfig = CompletableFuture.supplyAsync(() -> loadGitConfig(applicationContext.getEnvironment()), executor);
+
+		CuratorFramework curator = null;
+		CompletableFuture<Boolean> connected = null;
+		ZookeeperProperties early = null;
+		if (applicationContext.getEnvironment().containsProperty(CONNECT_STRING)
+		    || applicationContext.getEnvironment().containsProperty(READ_CONNECT)) {
+			early = zookeeperProperties(applicationContext);
+			if (early.isEnabled()) {
+				curator = startCurator(early);
+				connected = connectAsync(curator, early, executor);
+			}
+		}
 
 		try {
-			cloneConfig("master");
+			addGitConfig(applicationContext, ZookeeperTreeLoader.await(gitConfig));
+			pollGitConfig(applicationContext, gitConfig.join());
+		} catch (RuntimeException e) {
+			if (curator != null) {
+				closeCurator(curator);
+			}
+			executor.shutdown();
+			throw e;
+		}
+		ZookeeperProperties properties = zookeeperProperties(applicationContext);
+		if (curator != null && (!properties.isEnabled() || !sameClient(early, properties))) {
+			LOG.info("git config changed the zookeeper client settings, reconnecting");
+			closeCurator(curator);
+			curator = null;
+		}
+		if (!properties.isEnabled()) {
+			executor.shutdown();
+			initializeWithoutZookeeper(applicationContext, properties);
+			return;
+		}
+		if (curator == null) {
+			curator = startCurator(properties);
+			connected = connectAsync(curator, properties, executor);
+		}
+
+		final ZookeeperContextCache contextCache = registerZookeeper(applicationContext, curator, properties);
+		final CompletableFuture<Void> prefetch = connected.thenCompose(ok -> {
+			List<CompletableFuture<ZookeeperPropertySource>> loads = new ArrayList<>();
+			for (ZookeeperContext context : applicationContexts(applicationContext)) {
+				if (!contextCache.isLazy(context)) {
+					loads.add(contextCache.load(context));
+				}
+			}
+			return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[loads.size()]));
+		});
+		applicationContext.addBeanFactoryPostProcessor(new BootstrapJoin() {
+			@Override
+			public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) throws BeansException {
+				try {
+					ZookeeperTreeLoader.await(prefetch);
+					load(applicationContext, contextCache);
+				} finally {
+					executor.shutdown();
+				}
+			}
+		});
+	}
 
-			String[] profiles = applicationContext.getEnvironment().getActiveProfiles();
-			YamlPropertySourceLoader loader = new YamlPropertySourceLoader();
-			LOG.info("loading {}.yml", profiles);
+	/**
+	 * Keeps the git config only, every zookeeper context is empty.
+	 */
+	private void initializeWithoutZookeeper(ConfigurableApplicationContext applicationContext, ZookeeperProperties properties) {
+		LOG.info("zookeeper is disabled, using the git config only");
+		applicationContext.getBeanFactory().registerSingleton(ConfigMetrics.class.getName(), metrics);
+		ZookeeperTreeLoader treeLoader = new ZookeeperFixtureLoader(applicationContext, null);
+		applicationContext.getBeanFactory().registerSingleton(ZookeeperTreeLoader.class.getName(), treeLoader);
+		ZookeeperContextCache contextCache = new ZookeeperContextCache(treeLoader, null);
+		setDecryptor(applicationContext, contextCache, properties);
+		applicationContext.getBeanFactory().registerSingleton(ZookeeperContextCache.class.getName(), contextCache);
+		load(applicationContext, contextCache);
+	}
+
+	/**
+	 * Reads the git config and the zookeeper contexts from the fixture, without starting a curator
+	 * client, watching or polling anything.
+	 */
+	private void initializeFromFixture(ConfigurableApplicationContext applicationContext, String fixture) {
+		LOG.info("loading alpaca config from the fixture {}", fixture);
+		String[] profiles = applicationContext.getEnvironment().getActiveProfiles();
+		Map<String, Map<String, Object>> properties = new HashMap<>();
+		YamlPropertySourceLoader loader = new YamlPropertySourceLoader();
+		try {
 			for (String profile : profiles) {
-				PropertySource<?> propertySource = loader.load("alpaca-zookeeper-config", new FileSystemResource(baseDir.resolve(profile + ".yml").toFile()), null);
-				if (propertySource != null) {
-					if (applicationContext.getEnvironment().getPropertySources().contains(DEFAULT_PROPERTIES)) {
-						applicationContext.getEnvironment().getPropertySources().addBefore(DEFAULT_PROPERTIES, propertySource);
-					} else {
-						applicationContext.getEnvironment().getPropertySources().addLast(propertySource);
+				Resource file = applicationContext.getResource(StringUtils.trimTrailingCharacter(fixture, '/') + "/git/" + profile + ".yml");
+				if (file.exists()) {
+					properties.put(profile, GitConfigReader.properties(loader.load("alpaca-zookeeper-config", file, null)));
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read the git config of the fixture " + fixture, e);
+		}
+		addGitConfig(applicationContext, gitConfigSources(profiles, properties));
+
+		applicationContext.getBeanFactory().registerSingleton(ConfigMetrics.class.getName(), metrics);
+		ZookeeperTreeLoader treeLoader = new ZookeeperFixtureLoader(applicationContext, fixture);
+		applicationContext.getBeanFactory().registerSingleton(ZookeeperTreeLoader.class.getName(), treeLoader);
+		ZookeeperContextCache contextCache = new ZookeeperContextCache(treeLoader, null);
+		// the fixture holds {cipher} values as zookeeper does, the key settings may come from its git config
+		setDecryptor(applicationContext, contextCache, zookeeperProperties(applicationContext));
+		applicationContext.getBeanFactory().registerSingleton(ZookeeperContextCache.class.getName(), contextCache);
+		load(applicationContext, contextCache);
+	}
+
+	/**
+	 * @return a property source for every active profile, the last profile first as it takes precedence
+	 */
+	private List<GitConfigPropertySource> loadGitConfig(ConfigurableEnvironment environment) {
+		String[] profiles = environment.getActiveProfiles();
+		Map<String, Map<String, Object>> properties = cache == null
+		                                              ? readGitConfig(environment)
+		                                              : cache.gitConfig(environment.getProperty(APPLICATION_NAME), profiles,
+		                                                                environment.getProperty(GIT_LABEL, "master"),
+		                                                                () -> readGitConfig(environment));
+		return gitConfigSources(profiles, properties);
+	}
+
+	private List<GitConfigPropertySource> gitConfigSources(String[] profiles, Map<String, Map<String, Object>> properties) {
+		List<GitConfigPropertySource> propertySources = new ArrayList<>();
+		for (String profile : profiles) {
+			Map<String, Object> profileProperties = properties.get(profile);
+			propertySources.add(0, new GitConfigPropertySource(profile, profileProperties == null ? Collections.<String, Object>emptyMap() : profileProperties));
+		}
+		return propertySources;
+	}
+
+	/**
+	 * @return the properties of each active profile that has a yml
+	 */
+	private Map<String, Map<String, Object>> readGitConfig(ConfigurableEnvironment environment) {
+		String[] profiles = environment.getActiveProfiles();
+		String label = environment.getProperty(GIT_LABEL, "master");
+		Map<String, Map<String, Object>> properties;
+		if (environment.getProperty(GIT_MIRROR, Boolean.class, false)) {
+			GitConfigMirror mirror = mirror(environment);
+			ProxySelector defaultProxy = ProxySelector.getDefault();
+			setProxy();
+			try {
+				properties = mirror.load(label, profiles);
+			} catch (IOException | GitAPIException e) {
+				throw new RuntimeException("read alpaca/config failed", e);
+			} finally {
+				ProxySelector.setDefault(defaultProxy);
+			}
+		} else if (!environment.getProperty(GIT_CHECKOUT, Boolean.class, true)) {
+			try {
+				fetchConfig(label);
+				try (Repository repository = openGitRepository().getRepository()) {
+					properties = new GitConfigReader(repository).load(label, profiles);
+				}
+			} catch (IOException | GitAPIException e) {
+				throw new RuntimeException("read alpaca/config failed", e);
+			}
+		} else {
+			properties = new HashMap<>();
+			try {
+				cloneConfig(label);
+
+				YamlPropertySourceLoader loader = new YamlPropertySourceLoader();
+				LOG.info("loading {}.yml", profiles);
+				for (String profile : profiles) {
+					FileSystemResource file = new FileSystemResource(baseDir.resolve(profile + ".yml").toFile());
+					if (file.exists()) {
+						properties.put(profile, GitConfigReader.properties(loader.load("alpaca-zookeeper-config", file, null)));
 					}
 				}
+			} catch (IOException | GitAPIException e) {
+				throw new RuntimeException("clone alpaca/config failed", e);
 			}
-		} catch (IOException | GitAPIException e) {
-			throw new RuntimeException("clone alpaca/config failed", e);
 		}
+		return properties;
+	}
+
+	/**
+	 * The git config goes in ahead of the zookeeper contexts, which are added later.
+	 */
+	private void addGitConfig(ConfigurableApplicationContext applicationContext, List<GitConfigPropertySource> propertySources) {
+		AlpacaPropertySource alpaca = AlpacaPropertySource.get(applicationContext.getEnvironment().getPropertySources());
+		for (GitConfigPropertySource propertySource : propertySources) {
+			alpaca.addLast(propertySource);
+		}
+	}
+
+	private void pollGitConfig(ConfigurableApplicationContext applicationContext, List<GitConfigPropertySource> propertySources) {
+		long interval = applicationContext.getEnvironment().getProperty(GIT_POLL_INTERVAL_MS, Long.class, 0L);
+		if (interval <= 0) {
+			return;
+		}
+		long jitter = applicationContext.getEnvironment().getProperty(GIT_POLL_JITTER_MS, Long.class, interval / 10);
+		String label = applicationContext.getEnvironment().getProperty(GIT_LABEL, "master");
+		AlpacaPropertySource alpaca = AlpacaPropertySource.get(applicationContext.getEnvironment().getPropertySources());
+		final GitConfigPoller poller;
+		if (applicationContext.getEnvironment().getProperty(GIT_MIRROR, Boolean.class, false)) {
+			GitConfigMirror mirror = mirror(applicationContext.getEnvironment());
+			poller = new GitConfigPoller(mirror::load, () -> syncMirror(mirror, label), propertySources, alpaca, applicationContext,
+			                             interval, jitter);
+		} else {
+			poller = new GitConfigPoller(baseDir, () -> fetchConfig(label), propertySources, alpaca, applicationContext, interval, jitter);
+		}
+		applicationContext.getBeanFactory().registerSingleton(GitConfigPoller.class.getName(), poller);
+		applicationContext.addApplicationListener(new ApplicationListener<ApplicationContextEvent>() {
+			@Override
+			public void onApplicationEvent(ApplicationContextEvent event) {
+				if (event.getApplicationContext() != applicationContext) {
+					return;
+				}
+				if (event instanceof ContextRefreshedEvent) {
+					poller.start();
+				} else if (event instanceof ContextClosedEvent) {
+					poller.close();
+				}
+			}
+		});
+	}
 
+	/**
+	 * Binds every {@code zhao.alpaca.zookeeper.*} setting known to the environment so far.
+	 */
+	private ZookeeperProperties zookeeperProperties(ConfigurableApplicationContext applicationContext) {
 		ZookeeperProperties properties = new ZookeeperProperties();
-		LOG.info("using zookeeper: {}", applicationContext.getEnvironment().getProperty("zhao.alpaca.zookeeper.connect-string"));
-		properties.setConnectString(applicationContext.getEnvironment().getProperty("zhao.alpaca.zookeeper.connect-string"));
+		RelaxedDataBinder binder = new RelaxedDataBinder(properties, ZOOKEEPER);
+		binder.setConversionService(applicationContext.getEnvironment().getConversionService());
+		binder.bind(new PropertySourcesPropertyValues(applicationContext.getEnvironment().getPropertySources()));
+		if (binder.getBindingResult().hasErrors()) {
+			// the properties were read one by one before, and failed on the first invalid value
+			List<String> invalid = new ArrayList<>();
+			for (FieldError error : binder.getBindingResult().getFieldErrors()) {
+				invalid.add(ZOOKEEPER + "." + error.getField() + "=" + error.getRejectedValue());
+			}
+			throw new IllegalStateException("Invalid zookeeper settings: " + invalid);
+		}
+		return properties;
+	}
+
+	/**
+	 * @return whether a client started with {@code started} fits {@code properties}
+	 */
+	private static boolean sameClient(ZookeeperProperties started, ZookeeperProperties properties) {
+		return clientSettings(started).equals(clientSettings(properties));
+	}
 
+	/**
+	 * @return every setting {@link #newCurator} starts a client with
+	 */
+	private static String clientSettings(ZookeeperProperties properties) {
+		return properties.getEffectiveReadConnectString()
+		       + "|canBeReadOnly=" + properties.isCanBeReadOnly()
+		       + "|preferNearestServers=" + properties.isPreferNearestServers()
+		       + "|sessionTimeoutMs=" + properties.getSessionTimeoutMs()
+		       + "|connectionTimeoutMs=" + properties.getConnectionTimeoutMs()
+		       + "|retry=" + properties.getBaseSleepTimeMs() + "," + properties.getMaxRetries() + "," + properties.getMaxSleepMs();
+	}
+
+	private CuratorFramework startCurator(ZookeeperProperties properties) {
+		LOG.info("using zookeeper: {}", properties.getEffectiveReadConnectString());
+		if (cache != null) {
+			return cache.curator(clientSettings(properties), settings -> newCurator(properties));
+		}
+		return newCurator(properties);
+	}
+
+	private CuratorFramework newCurator(ZookeeperProperties properties) {
 		RetryPolicy retryPolicy = new ExponentialBackoffRetry(properties.getBaseSleepTimeMs(), properties.getMaxRetries(), properties.getMaxSleepMs());
 		CuratorFrameworkFactory.Builder builder = CuratorFrameworkFactory.builder();
-		CuratorFramework curator = builder.retryPolicy(retryPolicy).connectString(properties.getConnectString()).build();
+		builder.retryPolicy(retryPolicy)
+		       .sessionTimeoutMs(properties.getSessionTimeoutMs())
+		       .connectionTimeoutMs(properties.getConnectionTimeoutMs())
+		       .canBeReadOnly(properties.isCanBeReadOnly());
+		if (properties.isPreferNearestServers()) {
+			builder.ensembleProvider(new NearestServersEnsembleProvider(properties.getEffectiveReadConnectString()));
+		} else {
+			builder.connectString(properties.getEffectiveReadConnectString());
+		}
+		CuratorFramework curator = builder.build();
 		curator.start();
+		return curator;
+	}
+
+	/**
+	 * Closes a client started for this context only.
+	 */
+	private void closeCurator(CuratorFramework curator) {
+		if (cache == null || !cache.isShared(curator)) {
+			curator.close();
+		}
+	}
+
+	private boolean connect(CuratorFramework curator, ZookeeperProperties properties) {
 		LOG.trace("blocking until connected to zookeeper for " + properties.getBlockUntilConnectedWait() + properties.getBlockUntilConnectedUnit());
+		boolean connected;
 		try {
-			curator.blockUntilConnected(properties.getBlockUntilConnectedWait(), properties.getBlockUntilConnectedUnit());
+			connected = curator.blockUntilConnected(properties.getBlockUntilConnectedWait(), properties.getBlockUntilConnectedUnit());
 		} catch (InterruptedException e) {
 			throw new RuntimeException(e);
 		}
-		LOG.trace("connected to zookeeper");
+		if (connected) {
+			LOG.trace("connected to zookeeper");
+		} else if (properties.isSnapshot()) {
+			LOG.warn("Could not connect to zookeeper, starting from local snapshots and reconnecting in the background");
+		}
+		return connected;
+	}
 
+	private CompletableFuture<Boolean> connectAsync(CuratorFramework curator, ZookeeperProperties properties, ExecutorService executor) {
+		return CompletableFuture.supplyAsync(() -> connect(curator, properties), executor);
+	}
+
+	private ZookeeperContextCache registerZookeeper(ConfigurableApplicationContext applicationContext, CuratorFramework curator, ZookeeperProperties properties) {
 		applicationContext.getBeanFactory().registerSingleton(CuratorFramework.class.getName(), curator);
+		applicationContext.getBeanFactory().registerSingleton(ConfigMetrics.class.getName(), metrics);
+		ZookeeperReadLimiter limiter = properties.getJvmMaxInFlightRequests() > 0
+		                               ? ZookeeperReadLimiter.shared(properties.getJvmMaxInFlightRequests())
+		                               : new ZookeeperReadLimiter(properties.getMaxInFlightRequests());
+		limiter.setTargetLatencyMs(properties.getTargetReadLatencyMs());
+		ZookeeperTreeLoader treeLoader = new ZookeeperTreeLoader(curator, limiter);
+		treeLoader.setMetrics(metrics);
+		treeLoader.setBundles(properties.isBundle());
+		treeLoader.setRevalidateNodes(properties.isRevalidateNodes());
+		treeLoader.setStartupJitterMs(properties.getStartupJitterMs());
+		if (cache != null) {
+			treeLoader.setSnapshotStore(cache.snapshotStore(properties.getEffectiveReadConnectString()));
+		} else if (properties.isSnapshot()) {
+			treeLoader.setSnapshotStore(new ZookeeperSnapshotStore(Paths.get(properties.getSnapshotDir()), properties.getEffectiveReadConnectString()));
+		}
+		applicationContext.getBeanFactory().registerSingleton(ZookeeperTreeLoader.class.getName(), treeLoader);
+		ZookeeperContextWatcher watcher = properties.isWatch() ? createWatcher(applicationContext, curator, properties) : null;
+		ZookeeperContextCache contextCache = new ZookeeperContextCache(treeLoader, watcher);
+		contextCache.setLazyContexts(properties.getLazyContexts());
+		setDecryptor(applicationContext, contextCache, properties);
+		applicationContext.getBeanFactory().registerSingleton(ZookeeperContextCache.class.getName(), contextCache);
+		return contextCache;
+	}
 
-		load(applicationContext, curator);
+	/**
+	 * Sets up the decryption of {@code {cipher}} values, and drops the plain texts it keeps once the
+	 * context closes.
+	 */
+	private void setDecryptor(final ConfigurableApplicationContext applicationContext, ZookeeperContextCache contextCache, ZookeeperProperties properties) {
+		final ConfigDecryptor decryptor = decryptor(applicationContext, properties);
+		if (decryptor == null) {
+			return;
+		}
+		contextCache.setDecryptor(decryptor);
+		applicationContext.addApplicationListener(new ApplicationListener<ContextClosedEvent>() {
+			@Override
+			public void onApplicationEvent(ContextClosedEvent event) {
+				// child contexts publish their close here as well
+				if (event.getApplicationContext() == applicationContext) {
+					decryptor.clear();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the decryptor of {@code {cipher}} values, or {@code null} if no key is configured
+	 */
+	private ConfigDecryptor decryptor(ConfigurableApplicationContext applicationContext, ZookeeperProperties properties) {
+		try {
+			if (StringUtils.hasText(properties.getKeyProvider())) {
+				Class<?> type = ClassUtils.forName(properties.getKeyProvider(), applicationContext.getClassLoader());
+				return new ConfigDecryptor((CipherKeyProvider) BeanUtils.instantiateClass(type));
+			}
+			if (StringUtils.hasText(properties.getKeyStore())) {
+				char[] password = properties.getKeyStorePassword() == null ? new char[0] : properties.getKeyStorePassword().toCharArray();
+				return new ConfigDecryptor(new KeyStoreKeyProvider(Paths.get(properties.getKeyStore()), properties.getKeyStoreType(),
+				                                                   password, properties.getKeyAlias()));
+			}
+		} catch (ClassNotFoundException | IOException | GeneralSecurityException e) {
+			throw new IllegalStateException("Could not set up the decryption of {cipher} values", e);
+		}
+		return null;
+	}
+
+	private ZookeeperContextWatcher createWatcher(final ConfigurableApplicationContext applicationContext, CuratorFramework curator, ZookeeperProperties properties) {
+		final ZookeeperContextWatcher watcher = new ZookeeperContextWatcher(curator, properties.getWatchBatchDelayMs());
+		watcher.setMetrics(metrics);
+		// first listener, so every other one sees the changes
+		final AlpacaPropertySource alpaca = AlpacaPropertySource.get(applicationContext.getEnvironment().getPropertySources());
+		watcher.addListener(keys -> alpaca.invalidate());
+		applicationContext.getBeanFactory().registerSingleton(ZookeeperContextWatcher.class.getName(), watcher);
+		applicationContext.addApplicationListener(new ApplicationListener<ContextClosedEvent>() {
+			@Override
+			public void onApplicationEvent(ContextClosedEvent event) {
+				// child contexts publish their close here as well
+				if (event.getApplicationContext() == applicationContext) {
+					watcher.close();
+				}
+			}
+		});
+		return watcher;
 	}
 
 	private void addProfiles(List<ZookeeperContext> contexts, String baseContext, String prefix, List<String> profiles) {
@@ -99,26 +597,53 @@ public class AlpacaContextInitializer implements ApplicationContextInitializer {
 		}
 	}
 
+	private GitConfigMirror mirror(ConfigurableEnvironment environment) {
+		Path mirrorDir = Paths.get(environment.getProperty(GIT_MIRROR_DIR, baseDir.resolveSibling("alpaca-mirror").toString()));
+		return new GitConfigMirror(mirrorDir, uri, provider, environment.getProperty(GIT_MIRROR_FETCH_INTERVAL_MS, Long.class, 60000L),
+		                           environment.getProperty(GIT_MIRROR_WAIT_MS, Long.class, 10000L), metrics);
+	}
+
+	private ObjectId syncMirror(GitConfigMirror mirror, String label) throws IOException, GitAPIException {
+		ProxySelector defaultProxy = ProxySelector.getDefault();
+		setProxy();
+		try {
+			return mirror.sync(label);
+		} finally {
+			ProxySelector.setDefault(defaultProxy);
+		}
+	}
+
 	private void cloneConfig(String label) throws IOException, GitAPIException {
 		ProxySelector defaultProxy = ProxySelector.getDefault();
 		setProxy();
+		StopWatch timer = new StopWatch();
 		Git git = null;
 		try {
-			git = createGitClient();
-			if (shouldPull(git)) {
-				fetch(git);
-				checkout(git, label);
-				if (!isClean(git)) {
-					LOG.warn("The local repository is dirty. Resetting it to origin/" + label + ".");
-					resetHard(git, label, "refs/remotes/origin/" + label);
+			if (Files.exists(baseDir.resolve(".git"))) {
+				timer.start("open");
+				git = openGitRepository();
+				timer.stop();
+				update(git, label, timer);
+			} else {
+				timer.start("clone");
+				git = copyGitRepository(label);
+				timer.stop();
+				if (git.getRepository().resolve(Constants.HEAD) == null) {
+					// the label is no branch, so the single-branch clone is empty
+					update(git, label, timer);
+				} else {
+					metrics.gitConfirmed();
 				}
 			}
-
 		} catch (GitAPIException e) {
 			throw new IllegalStateException("Cannot clone or checkout repository", e);
 		} catch (Exception e) {
 			throw new IllegalStateException("Cannot load environment", e);
 		} finally {
+			if (timer.isRunning()) {
+				timer.stop();
+			}
+			LOG.info("git config {}: {}", label, timings(timer));
 			try {
 				if (git != null) {
 					git.close();
@@ -130,6 +655,205 @@ public class AlpacaContextInitializer implements ApplicationContextInitializer {
 		ProxySelector.setDefault(defaultProxy);
 	}
 
+	/**
+	 * Compares the remote branch with the local commit first, and only fetches that branch when it moved.
+	 * Labels that are not remote branches (tags) go through the full status/fetch/checkout.
+	 */
+	private void update(Git git, String label, StopWatch timer) throws IOException, GitAPIException {
+		timer.start("ls-remote");
+		ObjectId remote;
+		try {
+			remote = remoteBranch(git, label);
+		} catch (GitAPIException e) {
+			warn(e, "Could not reach remote " + git.getRepository().getConfig().getString("remote", "origin", "url")
+			        + ", using the local copy");
+			return;
+		} finally {
+			timer.stop();
+		}
+
+		if (remote == null) {
+			timer.start("pull");
+			if (shouldPull(git)) {
+				if (fetch(git) != null) {
+					metrics.gitConfirmed();
+				}
+				checkout(git, label);
+				if (!isClean(git)) {
+					LOG.warn("The local repository is dirty. Resetting it to origin/" + label + ".");
+					resetHard(git, label, "refs/remotes/origin/" + label);
+				}
+			}
+			timer.stop();
+		} else if (remote.equals(git.getRepository().resolve(Constants.HEAD))) {
+			LOG.info("Local repository is up to date with origin/{} at {}", label, remote.name());
+			metrics.gitConfirmed();
+		} else {
+			timer.start("fetch");
+			if (fetchBranch(git, label) != null) {
+				metrics.gitConfirmed();
+			}
+			timer.stop();
+			timer.start("checkout");
+			checkout(git, label);
+			resetHard(git, label, "refs/remotes/origin/" + label);
+			timer.stop();
+		}
+	}
+
+	/**
+	 * @return the commit of the remote branch, or {@code null} if the remote has no such branch
+	 */
+	private ObjectId remoteBranch(Git git, String label) throws GitAPIException {
+		LsRemoteCommand lsRemote = git.lsRemote();
+		lsRemote.setRemote("origin");
+		lsRemote.setHeads(true);
+		lsRemote.setTimeout(5);
+		lsRemote.setCredentialsProvider(provider);
+		for (Ref ref : lsRemote.call()) {
+			if (ref.getName().equals(Constants.R_HEADS + label)) {
+				return ref.getObjectId();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Fetches the one branch, without tags. JGit cannot fetch shallow, so the history comes along.
+	 */
+	private FetchResult fetchBranch(Git git, String label) {
+		FetchCommand fetch = git.fetch();
+		fetch.setRemote("origin");
+		fetch.setRefSpecs(new RefSpec("+" + Constants.R_HEADS + label + ":" + Constants.R_REMOTES + "origin/" + label));
+		fetch.setTagOpt(TagOpt.NO_TAGS);
+		fetch.setTimeout(5);
+		fetch.setCredentialsProvider(provider);
+		try {
+			return fetch.call();
+		} catch (GitAPIException e) {
+			warn(e, "Could not fetch remote for " + label + " remote: "
+			        + git.getRepository().getConfig().getString("remote", "origin", "url"));
+			return null;
+		}
+	}
+
+	/**
+	 * Records the git steps in the metrics, and lists them for the log.
+	 */
+	private String timings(StopWatch timer) {
+		StringBuilder timings = new StringBuilder();
+		for (StopWatch.TaskInfo task : timer.getTaskInfo()) {
+			metrics.gitStep(task.getTaskName(), task.getTimeMillis());
+			if (timings.length() > 0) {
+				timings.append(", ");
+			}
+			timings.append(task.getTaskName()).append(' ').append(task.getTimeMillis()).append("ms");
+		}
+		return timings.toString();
+	}
+
+	/**
+	 * Brings the objects of the label into the local repository, without touching a working tree.
+	 * Nothing is fetched for a commit id that is already there, or for a branch or tag whose remote
+	 * ref still matches the local one.
+	 *
+	 * @return the commit the label points to locally
+	 */
+	private ObjectId fetchConfig(String label) throws IOException, GitAPIException {
+		ProxySelector defaultProxy = ProxySelector.getDefault();
+		setProxy();
+		StopWatch timer = new StopWatch();
+		Git git = null;
+		boolean fetched = false;
+		try {
+			if (Files.exists(baseDir.resolve(".git"))) {
+				timer.start("open");
+				git = openGitRepository();
+			} else {
+				timer.start("clone");
+				git = copyGitObjects();
+				fetched = true;
+				metrics.gitConfirmed();
+			}
+			timer.stop();
+			if (ObjectId.isId(label) && git.getRepository().hasObject(ObjectId.fromString(label))) {
+				// commits do not change
+				metrics.gitConfirmed();
+				return ObjectId.fromString(label);
+			}
+
+			timer.start("ls-remote");
+			ObjectId remote;
+			try {
+				remote = remoteRef(git, label);
+			} catch (GitAPIException e) {
+				warn(e, "Could not reach remote " + git.getRepository().getConfig().getString("remote", "origin", "url")
+				        + ", using the local copy");
+				return new GitConfigReader(git.getRepository()).resolve(label);
+			} finally {
+				timer.stop();
+			}
+			ObjectId local = new GitConfigReader(git.getRepository()).resolve(label);
+			if (remote == null ? local == null : !remote.equals(local)) {
+				timer.start("fetch");
+				if (fetchObjects(git) != null) {
+					metrics.gitConfirmed();
+				}
+				timer.stop();
+				fetched = true;
+				local = new GitConfigReader(git.getRepository()).resolve(label);
+			} else {
+				metrics.gitConfirmed();
+			}
+			return local;
+		} finally {
+			if (timer.isRunning()) {
+				timer.stop();
+			}
+			if (fetched) {
+				LOG.info("git config {}: {}", label, timings(timer));
+			} else {
+				// the poller gets here on every poll
+				LOG.debug("git config {}: {}", label, timings(timer));
+			}
+			if (git != null) {
+				git.close();
+			}
+			ProxySelector.setDefault(defaultProxy);
+		}
+	}
+
+	/**
+	 * @return the commit of the remote branch or tag, or {@code null} if the remote has neither
+	 */
+	private ObjectId remoteRef(Git git, String label) throws GitAPIException {
+		LsRemoteCommand lsRemote = git.lsRemote();
+		lsRemote.setRemote("origin");
+		lsRemote.setTimeout(5);
+		lsRemote.setCredentialsProvider(provider);
+		for (Ref ref : lsRemote.call()) {
+			if (ref.getName().equals(Constants.R_HEADS + label) || ref.getName().equals(Constants.R_TAGS + label)) {
+				return ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+			}
+		}
+		return null;
+	}
+
+	private FetchResult fetchObjects(Git git) {
+		FetchCommand fetch = git.fetch();
+		fetch.setRemote("origin");
+		fetch.setRefSpecs(new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES + "origin/*"),
+		                  new RefSpec("+" + Constants.R_TAGS + "*:" + Constants.R_TAGS + "*"));
+		fetch.setTimeout(5);
+		fetch.setCredentialsProvider(provider);
+		try {
+			return fetch.call();
+		} catch (GitAPIException e) {
+			warn(e, "Could not fetch remote: " + git.getRepository().getConfig().getString("remote", "origin", "url"));
+			return null;
+		}
+	}
+
 	private boolean shouldPull(Git git) throws GitAPIException {
 		boolean shouldPull;
 		Status gitStatus = git.status().call();
@@ -286,26 +1010,35 @@ public class AlpacaContextInitializer implements ApplicationContextInitializer {
 		}
 	}
 
-	private Git createGitClient() throws IOException, GitAPIException {
-		if (Files.exists(baseDir.resolve(".git"))) {
-			return openGitRepository();
-		} else {
-			return copyGitRepository();
-		}
-	}
-
 	private Git openGitRepository() throws IOException {
 		return Git.open(baseDir.toFile());
 	}
 
-	private synchronized Git copyGitRepository() throws GitAPIException {
+	private synchronized Git copyGitRepository(String label) throws GitAPIException {
 		deleteBaseDirIfExists();
 		baseDir.toFile().mkdirs();
 		if (!Files.exists(baseDir)) {
 			throw new IllegalStateException("Could not create baseDir: " + baseDir.toAbsolutePath());
 		}
 		CloneCommand clone = Git.cloneRepository().setURI(uri).setDirectory(baseDir.toFile()).setTimeout(5)
-		                        .setCredentialsProvider(provider);
+		                        .setCredentialsProvider(provider)
+		                        .setBranch(label).setBranchesToClone(Collections.singleton(Constants.R_HEADS + label));
+		try {
+			return clone.call();
+		} catch (GitAPIException e) {
+			deleteBaseDirIfExists();
+			throw e;
+		}
+	}
+
+	private synchronized Git copyGitObjects() throws GitAPIException {
+		deleteBaseDirIfExists();
+		baseDir.toFile().mkdirs();
+		if (!Files.exists(baseDir)) {
+			throw new IllegalStateException("Could not create baseDir: " + baseDir.toAbsolutePath());
+		}
+		CloneCommand clone = Git.cloneRepository().setURI(uri).setDirectory(baseDir.toFile()).setTimeout(5)
+		                        .setCredentialsProvider(provider).setNoCheckout(true);
 		try {
 			return clone.call();
 		} catch (GitAPIException e) {
@@ -346,7 +1079,7 @@ public class AlpacaContextInitializer implements ApplicationContextInitializer {
 		}
 	}
 
-	private void load(ConfigurableApplicationContext applicationContext, CuratorFramework curator) {
+	private List<ZookeeperContext> applicationContexts(ConfigurableApplicationContext applicationContext) {
 		List<String> activeProfiles = Arrays.asList(applicationContext.getEnvironment().getActiveProfiles());
 		String appName = applicationContext.getEnvironment().getProperty(APPLICATION_NAME);
 		List<ZookeeperContext> contexts = new ArrayList<>();
@@ -355,14 +1088,27 @@ public class AlpacaContextInitializer implements ApplicationContextInitializer {
 		addProfiles(contexts, defaultContext + "default", "", activeProfiles);
 		addProfiles(contexts, defaultContext + appName, "", activeProfiles);
 		Collections.reverse(contexts);
+		return contexts;
+	}
 
-		for (ZookeeperContext propertySourceContext : contexts) {
-			ZookeeperPropertySource propertySource = new ZookeeperPropertySource(propertySourceContext.getContext(), propertySourceContext.getPrefix(), curator);
-			if (propertySource.getPropertyNames().length > 0) {
-				applicationContext.getEnvironment().getPropertySources().addLast(propertySource);
-			}
-		}
+	private void load(ConfigurableApplicationContext applicationContext, ZookeeperContextCache contextCache) {
+		contextCache.addPropertySources(applicationContext.getEnvironment().getPropertySources(), applicationContexts(applicationContext));
 
 		LOG.info("dubbo using zookeeper: {}", applicationContext.getEnvironment().getProperty("dubbo.zookeeper.connect-string"));
 	}
+
+	/**
+	 * Runs ahead of every other bean factory post-processor, so it is the place to wait for the
+	 * concurrent bootstrap.
+	 */
+	private abstract static class BootstrapJoin implements BeanDefinitionRegistryPostProcessor, PriorityOrdered {
+		@Override
+		public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+		}
+
+		@Override
+		public int getOrder() {
+			return PriorityOrdered.HIGHEST_PRECEDENCE;
+		}
+	}
 }
@@ -1,8 +1,8 @@
 package org.light.alpaca.config.bootstrap;
 
+import org.light.alpaca.config.zookeeper.LazyZookeeperPropertySource;
 import org.light.alpaca.config.zookeeper.ZookeeperContext;
-import org.light.alpaca.config.zookeeper.ZookeeperPropertySource;
-import org.apache.curator.framework.CuratorFramework;
+import org.light.alpaca.config.zookeeper.ZookeeperContextCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -17,70 +17,134 @@ import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.core.PriorityOrdered;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.PropertySource;
 
 import java.beans.PropertyDescriptor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Lee
  * @date 2016/10/20 0020
  */
 public class AlpacaInstantiationAwareBeanPostProcessor implements InstantiationAwareBeanPostProcessor, ApplicationContextAware, PriorityOrdered {
-	private static final Logger LOG = LoggerFactory.getLogger(AlpacaInstantiationAwareBeanPostProcessor.class);
+	private static final Logger LOG               = LoggerFactory.getLogger(AlpacaInstantiationAwareBeanPostProcessor.class);
+	private static final String DATASOURCE_PREFIX = "alpaca.datasource.";
+	private static final String COMPONENTS_PREFIX = "alpaca.components.";
 	private ConfigurableApplicationContext context;
 
+	// collaborators, looked up for the first bean only
+	private volatile ConfigurationBeanFactoryMetaData            beans;
+	private volatile ZookeeperContextCache                       contextCache;
+	private volatile ConfigurationPropertiesBindingPostProcessor bind;
+
+	/**
+	 * @ConfigurationProperties of bean classes, empty for classes without one
+	 */
+	private final Map<Class<?>, Optional<ConfigurationProperties>> classAnnotations = new ConcurrentHashMap<>();
+
+	/**
+	 * prefixes of the @ConfigurationProperties beans seen so far, by bean name
+	 */
+	private final Map<String, String> configurationPropertiesPrefixes = new ConcurrentHashMap<>();
+
 	@Override
 	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
 		context = (ConfigurableApplicationContext) applicationContext;
 	}
 
 	public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
-		ConfigurationBeanFactoryMetaData beans = context.getBean(ConfigurationBeanFactoryMetaData.class);
-		CuratorFramework curator = context.getBean(CuratorFramework.class);
+		ConfigurationProperties annotation = findAnnotation(bean, beanName);
+		if (annotation == null) {
+			return bean;
+		}
+		configurationPropertiesPrefixes.put(beanName, annotation.value());
+
+		String prefix = annotation.value();
 		ConfigurableEnvironment env = context.getEnvironment();
+		if (isAlpacaPrefix(prefix) && env.getProperty(prefix, "null").equals("null")) {
+			List<ZookeeperContext> contexts = contexts(prefix, Arrays.asList(env.getActiveProfiles()));
+			if (!contexts.isEmpty()) {
+				if (contextCache().addPropertySources(env.getPropertySources(), contexts)) {
+					bind().setPropertySources(env.getPropertySources());
+				}
+			}
+		}
+		// the binding post-processor follows, and lists the keys of lazy contexts below the prefix only
+		for (PropertySource<?> propertySource : env.getPropertySources()) {
+			if (propertySource instanceof LazyZookeeperPropertySource) {
+				((LazyZookeeperPropertySource) propertySource).enumerate(prefix);
+			}
+		}
+		return bean;
+	}
 
+	private ConfigurationProperties findAnnotation(Object bean, String beanName) {
+		ConfigurationBeanFactoryMetaData beans = this.beans;
+		if (beans == null) {
+			beans = this.beans = context.getBean(ConfigurationBeanFactoryMetaData.class);
+		}
 		ConfigurationProperties annotation = beans.findFactoryAnnotation(beanName, ConfigurationProperties.class);
-		if (annotation == null) {
-			annotation = AnnotationUtils.findAnnotation(bean.getClass(), ConfigurationProperties.class);
+		if (annotation != null) {
+			return annotation;
 		}
+		Class<?> beanClass = bean.getClass();
+		Optional<ConfigurationProperties> classAnnotation = classAnnotations.get(beanClass);
+		if (classAnnotation == null) {
+			classAnnotation = Optional.ofNullable(AnnotationUtils.findAnnotation(beanClass, ConfigurationProperties.class));
+			classAnnotations.put(beanClass, classAnnotation);
+		}
+		return classAnnotation.orElse(null);
+	}
 
-		if (annotation != null) {
-			List<ZookeeperContext> contexts = new ArrayList<>();
-			List<String> activeProfiles = Arrays.asList(env.getActiveProfiles());
+	private ZookeeperContextCache contextCache() {
+		ZookeeperContextCache contextCache = this.contextCache;
+		if (contextCache == null) {
+			contextCache = this.contextCache = context.getBean(ZookeeperContextCache.class);
+		}
+		return contextCache;
+	}
 
-			if (annotation.value().startsWith("alpaca.datasource.") && env.getProperty(annotation.value(), "null").equals("null")) {
-				addProfiles(contexts, "config/databases/default", "", activeProfiles);
-				addProfiles(contexts, "config/databases/" + annotation.value().substring(18), annotation.value(), activeProfiles);
-			}
+	private ConfigurationPropertiesBindingPostProcessor bind() {
+		ConfigurationPropertiesBindingPostProcessor bind = this.bind;
+		if (bind == null) {
+			bind = this.bind = context.getBean(ConfigurationPropertiesBindingPostProcessor.class);
+		}
+		return bind;
+	}
 
-			if (annotation.value().startsWith("alpaca.components.") && env.getProperty(annotation.value(), "null").equals("null")) {
-				addProfiles(contexts, "config/components/" + annotation.value().substring(18), annotation.value(), activeProfiles);
-			}
+	/**
+	 * @return the prefixes of the @ConfigurationProperties beans processed so far, by bean name
+	 */
+	public Map<String, String> getConfigurationPropertiesPrefixes() {
+		return Collections.unmodifiableMap(configurationPropertiesPrefixes);
+	}
 
-			if (!contexts.isEmpty()) {
-				Collections.reverse(contexts);
-				for (ZookeeperContext propertySourceContext : contexts) {
-					ZookeeperPropertySource propertySource = new ZookeeperPropertySource(propertySourceContext.getContext(), propertySourceContext.getPrefix(), curator);
-					if (propertySource.getPropertyNames().length > 0) {
-						if (LOG.isDebugEnabled()) {
-							for (String s : propertySource.getPropertyNames()) {
-								LOG.debug("load property {}: {}", s, propertySource.getProperty(s));
-							}
-						}
-						env.getPropertySources().addLast(propertySource);
-					}
-				}
-				ConfigurationPropertiesBindingPostProcessor bind = context.getBean(ConfigurationPropertiesBindingPostProcessor.class);
-				bind.setPropertySources(env.getPropertySources());
-			}
+	static boolean isAlpacaPrefix(String prefix) {
+		return prefix.startsWith(DATASOURCE_PREFIX) || prefix.startsWith(COMPONENTS_PREFIX);
+	}
+
+	/**
+	 * @return the contexts backing an alpaca prefix, highest precedence first
+	 */
+	static List<ZookeeperContext> contexts(String prefix, List<String> activeProfiles) {
+		List<ZookeeperContext> contexts = new ArrayList<>();
+		if (prefix.startsWith(DATASOURCE_PREFIX)) {
+			addProfiles(contexts, "config/databases/default", "", activeProfiles);
+			addProfiles(contexts, "config/databases/" + prefix.substring(DATASOURCE_PREFIX.length()), prefix, activeProfiles);
+		} else if (prefix.startsWith(COMPONENTS_PREFIX)) {
+			addProfiles(contexts, "config/components/" + prefix.substring(COMPONENTS_PREFIX.length()), prefix, activeProfiles);
 		}
-		return bean;
+		Collections.reverse(contexts);
+		return contexts;
 	}
 
-	private void addProfiles(List<ZookeeperContext> contexts, String baseContext, String prefix, List<String> profiles) {
+	private static void addProfiles(List<ZookeeperContext> contexts, String baseContext, String prefix, List<String> profiles) {
 		for (String profile : profiles) {
 			contexts.add(new ZookeeperContext(baseContext + "/" + profile, prefix, profile));
 		}
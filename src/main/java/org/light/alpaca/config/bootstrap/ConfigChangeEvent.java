@@ -0,0 +1,72 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.springframework.core.convert.ConversionService;
+
+/**
+ * A change of one key, delivered by {@link AlpacaConfigWatcher}. Changes that arrived while the
+ * previous one was still waiting for the listener are folded into one event, from the value the
+ * listener saw last to the latest one.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class ConfigChangeEvent {
+	private final String            key;
+	private final String            oldValue;
+	private final String            newValue;
+	private final long              version;
+	private final ConversionService conversionService;
+
+	ConfigChangeEvent(String key, String oldValue, String newValue, long version, ConversionService conversionService) {
+		this.key = key;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+		this.version = version;
+		this.conversionService = conversionService;
+	}
+
+	/**
+	 * @return the changed event, from the old value of this event to the new value of {@code next}
+	 */
+	ConfigChangeEvent merge(ConfigChangeEvent next) {
+		return new ConfigChangeEvent(key, oldValue, next.newValue, next.version, conversionService);
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return the value before the change, {@code null} if the key was added
+	 */
+	public String getOldValue() {
+		return oldValue;
+	}
+
+	/**
+	 * @return the value after the change, {@code null} if the key was removed
+	 */
+	public String getNewValue() {
+		return newValue;
+	}
+
+	public <T> T getOldValue(Class<T> type) {
+		return conversionService.convert(oldValue, type);
+	}
+
+	public <T> T getNewValue(Class<T> type) {
+		return conversionService.convert(newValue, type);
+	}
+
+	/**
+	 * @return the number of the batch of changes the new value came with, increasing with every batch
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public String toString() {
+		return key + ": " + oldValue + " -> " + newValue + " (" + version + ")";
+	}
+}
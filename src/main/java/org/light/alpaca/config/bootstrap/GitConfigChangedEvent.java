@@ -0,0 +1,38 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Set;
+
+/**
+ * Published by {@link GitConfigPoller} after the environment took over a new commit of the git config.
+ *
+ * @author Lee
+ * @date 2016/12/02 0002
+ */
+public class GitConfigChangedEvent extends ApplicationEvent {
+	private static final long serialVersionUID = 1L;
+
+	private final String      commit;
+	private final Set<String> keys;
+
+	public GitConfigChangedEvent(Object source, String commit, Set<String> keys) {
+		super(source);
+		this.commit = commit;
+		this.keys = keys;
+	}
+
+	/**
+	 * @return the id of the commit now in the environment
+	 */
+	public String getCommit() {
+		return commit;
+	}
+
+	/**
+	 * @return the keys that were added, changed or removed
+	 */
+	public Set<String> getKeys() {
+		return keys;
+	}
+}
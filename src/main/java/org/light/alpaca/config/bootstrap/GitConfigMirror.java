@@ -0,0 +1,332 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.light.alpaca.config.metrics.ConfigMetrics;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.LsRemoteCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.DigestUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bare mirror of the config repository shared by all processes of a host, one per repository
+ * uri below the mirror directory.
+ * <p>
+ * The mirror asks the remote at most once per fetch interval, whichever process comes first:
+ * it takes an exclusive file lock, compares every remote branch and tag with ls-remote and fetches
+ * if any of them moved, so one check keeps the labels of all services of the host current.
+ * Every other process reads the profile yml files from the object database under a shared lock,
+ * and waits up to the wait time for a fetch already in progress before reading what the mirror
+ * has. The git traffic and the startup contention of a host thus stay the same however many
+ * services run on it.
+ * <p>
+ * A file lock is held by the process, so the threads of one JVM take turns on a lock of their own
+ * before they take the file lock.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class GitConfigMirror {
+	private static final Logger LOG     = LoggerFactory.getLogger(GitConfigMirror.class);
+	private static final String FETCHED = "alpaca-fetched";
+	private static final long   POLL_MS = 50;
+
+	private static final ConcurrentMap<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+	private final Path                dir;
+	private final Path                lockFile;
+	private final String              uri;
+	private final CredentialsProvider provider;
+	private final long                fetchIntervalMs;
+	private final long                waitMs;
+	private final ConfigMetrics       metrics;
+
+	/**
+	 * @param mirrorDir       the directory of the mirrors of the host
+	 * @param fetchIntervalMs ask the remote at most once per this many ms
+	 * @param waitMs          wait this long for a fetch of another process before reading the mirror as it is
+	 */
+	public GitConfigMirror(Path mirrorDir, String uri, CredentialsProvider provider, long fetchIntervalMs, long waitMs,
+	                       ConfigMetrics metrics) {
+		String name = DigestUtils.md5DigestAsHex(uri.getBytes(Charset.forName("UTF-8")));
+		this.dir = mirrorDir.resolve(name + ".git");
+		this.lockFile = mirrorDir.resolve(name + ".lock");
+		this.uri = uri;
+		this.provider = provider;
+		this.fetchIntervalMs = fetchIntervalMs;
+		this.waitMs = waitMs;
+		this.metrics = metrics;
+	}
+
+	public Path getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * Brings the mirror up to date if the last fetch is older than the fetch interval.
+	 *
+	 * @return the commit the label points to in the mirror, {@code null} if the mirror does not know it
+	 */
+	public ObjectId sync(String label) throws IOException, GitAPIException {
+		return read(label, (reader, commit) -> commit);
+	}
+
+	/**
+	 * Brings the mirror up to date if the last fetch is older than the fetch interval, and reads the
+	 * profiles at the commit the label points to.
+	 *
+	 * @throws IllegalStateException if the label is unknown
+	 */
+	public Map<String, Map<String, Object>> load(String label, String[] profiles) throws IOException, GitAPIException {
+		return read(label, (reader, commit) -> {
+			if (commit == null) {
+				throw new IllegalStateException("Unknown label '" + label + "' in " + dir);
+			}
+			LOG.info("loading {}.yml at {} ({})", Arrays.toString(profiles), label, commit.name());
+			return reader.load(commit, profiles);
+		});
+	}
+
+	/**
+	 * Reads the profiles at a commit already in the mirror, without asking the remote.
+	 */
+	public Map<String, Map<String, Object>> load(ObjectId commit, String[] profiles) throws IOException {
+		ReentrantLock local = LOCKS.computeIfAbsent(lockFile, path -> new ReentrantLock());
+		local.lock();
+		try (FileChannel channel = channel()) {
+			FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+			try (Git git = Git.open(dir.toFile())) {
+				return new GitConfigReader(git.getRepository()).load(commit, profiles);
+			} finally {
+				lock.release();
+			}
+		} finally {
+			local.unlock();
+		}
+	}
+
+	private interface Read<T> {
+		T read(GitConfigReader reader, ObjectId commit) throws IOException;
+	}
+
+	private <T> T read(String label, Read<T> read) throws IOException, GitAPIException {
+		ReentrantLock local = LOCKS.computeIfAbsent(lockFile, path -> new ReentrantLock());
+		local.lock();
+		try (FileChannel channel = channel()) {
+			FileLock lock = null;
+			try {
+				if (isFresh(label)) {
+					lock = channel.lock(0, Long.MAX_VALUE, true);
+				} else {
+					lock = channel.tryLock();
+					if (lock == null) {
+						lock = awaitFetch(channel);
+					}
+					if (lock != null && !lock.isShared()) {
+						update(label);
+					}
+				}
+				try (Git git = Git.open(dir.toFile())) {
+					GitConfigReader reader = new GitConfigReader(git.getRepository());
+					return read.read(reader, reader.resolve(label));
+				}
+			} finally {
+				if (lock != null) {
+					lock.release();
+				}
+			}
+		} finally {
+			local.unlock();
+		}
+	}
+
+	/**
+	 * Another process is fetching. Waits for it to finish, or for the wait time if the mirror can
+	 * be read as it is.
+	 *
+	 * @return a shared lock, an exclusive one if this process has to create the mirror, or
+	 * {@code null} to read the mirror while the other process is still fetching; objects are never
+	 * changed and refs are replaced atomically, so that read sees the mirror before or after the fetch
+	 */
+	private FileLock awaitFetch(FileChannel channel) throws IOException {
+		LOG.info("waiting for another process to fetch into {}", dir);
+		long deadline = System.currentTimeMillis() + waitMs;
+		while (System.currentTimeMillis() < deadline) {
+			FileLock lock = channel.tryLock(0, Long.MAX_VALUE, true);
+			if (lock != null && Files.exists(dir.resolve(FETCHED))) {
+				return lock;
+			}
+			if (lock != null) {
+				// the other process could not create the mirror
+				lock.release();
+				return channel.lock();
+			}
+			try {
+				Thread.sleep(POLL_MS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for " + lockFile, e);
+			}
+		}
+		if (Files.exists(dir.resolve(FETCHED))) {
+			LOG.warn("Another process is still fetching into {}, using the mirror as it is", dir);
+			return null;
+		}
+		return channel.lock();
+	}
+
+	/**
+	 * Called with the exclusive lock: creates the mirror or fetches into it, unless another process
+	 * did while this one waited for the lock.
+	 */
+	private void update(String label) throws IOException, GitAPIException {
+		if (isFresh(label)) {
+			return;
+		}
+		long startedAt = System.currentTimeMillis();
+		Git git = null;
+		try {
+			if (Files.exists(dir.resolve(FETCHED))) {
+				git = Git.open(dir.toFile());
+			} else {
+				git = create();
+			}
+			GitConfigReader reader = new GitConfigReader(git.getRepository());
+			if (ObjectId.isId(label) && git.getRepository().hasObject(ObjectId.fromString(label))) {
+				// commits do not change
+				touch();
+				metrics.gitConfirmed();
+				return;
+			}
+			ObjectId local = reader.resolve(label);
+			try {
+				// an unknown label may be a commit that only a fetch brings
+				if (local == null || !matchesRemote(git)) {
+					fetch(git);
+					metrics.gitStep("mirror-fetch", System.currentTimeMillis() - startedAt);
+					LOG.info("fetched {} into {} in {}ms", uri, dir, System.currentTimeMillis() - startedAt);
+				}
+				metrics.gitConfirmed();
+			} catch (GitAPIException e) {
+				if (local == null) {
+					throw e;
+				}
+				LOG.warn("Could not reach remote {}, using the mirror as it is: {}", uri, e.getMessage());
+			}
+			// also after a failure, so the processes of the host do not all retry at once
+			touch();
+		} finally {
+			if (git != null) {
+				git.close();
+			}
+		}
+	}
+
+	private Git create() throws IOException, GitAPIException {
+		if (Files.exists(dir)) {
+			// left behind by a process that died while creating it
+			FileUtils.delete(dir.toFile(), FileUtils.RECURSIVE);
+		}
+		LOG.info("creating git config mirror of {} in {}", uri, dir);
+		Git git = Git.init().setBare(true).setDirectory(dir.toFile()).call();
+		StoredConfig config = git.getRepository().getConfig();
+		config.setString("remote", "origin", "url", uri);
+		config.save();
+		return git;
+	}
+
+	/**
+	 * @return whether every branch and tag of the remote is in the mirror at the same id, and the
+	 * mirror has no others
+	 */
+	private boolean matchesRemote(Git git) throws GitAPIException, IOException {
+		LsRemoteCommand lsRemote = git.lsRemote();
+		lsRemote.setRemote("origin");
+		lsRemote.setHeads(true);
+		lsRemote.setTags(true);
+		lsRemote.setTimeout(5);
+		lsRemote.setCredentialsProvider(provider);
+		Map<String, ObjectId> remote = new HashMap<>();
+		for (Ref ref : lsRemote.call()) {
+			if (ref.getName().startsWith(Constants.R_HEADS)) {
+				remote.put(Constants.R_REMOTES + "origin/" + ref.getName().substring(Constants.R_HEADS.length()), ref.getObjectId());
+			} else if (ref.getName().startsWith(Constants.R_TAGS) && !ref.getName().endsWith("^{}")) {
+				remote.put(ref.getName(), ref.getObjectId());
+			}
+		}
+		Map<String, ObjectId> local = new HashMap<>();
+		RefDatabase refs = git.getRepository().getRefDatabase();
+		for (Ref ref : refs.getRefs(Constants.R_REMOTES + "origin/").values()) {
+			local.put(ref.getName(), ref.getObjectId());
+		}
+		for (Ref ref : refs.getRefs(Constants.R_TAGS).values()) {
+			local.put(ref.getName(), ref.getObjectId());
+		}
+		return remote.equals(local);
+	}
+
+	/**
+	 * Fetches all branches and tags, so one fetch serves the labels of every service on the host.
+	 */
+	private void fetch(Git git) throws GitAPIException {
+		FetchCommand fetch = git.fetch();
+		fetch.setRemote("origin");
+		fetch.setRefSpecs(new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES + "origin/*"),
+		                  new RefSpec("+" + Constants.R_TAGS + "*:" + Constants.R_TAGS + "*"));
+		fetch.setRemoveDeletedRefs(true);
+		fetch.setTimeout(5);
+		fetch.setCredentialsProvider(provider);
+		fetch.call();
+	}
+
+	/**
+	 * @return whether some process asked the remote within the fetch interval, and the mirror knows the label
+	 */
+	private boolean isFresh(String label) throws IOException {
+		Path fetched = dir.resolve(FETCHED);
+		if (!Files.exists(fetched)
+		    || System.currentTimeMillis() - Files.getLastModifiedTime(fetched).toMillis() >= fetchIntervalMs) {
+			return false;
+		}
+		try (Git git = Git.open(dir.toFile())) {
+			return new GitConfigReader(git.getRepository()).resolve(label) != null;
+		}
+	}
+
+	private void touch() throws IOException {
+		Path fetched = dir.resolve(FETCHED);
+		if (!Files.exists(fetched)) {
+			Files.createFile(fetched);
+		}
+		Files.setLastModifiedTime(fetched, FileTime.fromMillis(System.currentTimeMillis()));
+	}
+
+	private FileChannel channel() throws IOException {
+		Files.createDirectories(lockFile.getParent());
+		return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+}
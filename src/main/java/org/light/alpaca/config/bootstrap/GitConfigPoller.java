@@ -0,0 +1,145 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.light.alpaca.config.zookeeper.AlpacaPropertySource;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the git config in the background. A poll that finds the remote ref unchanged costs one
+ * ls-remote; when it moved, the new commit is fetched, the profile yml files whose blob changed
+ * are read again and swapped into their {@link GitConfigPropertySource}s, and a
+ * {@link GitConfigChangedEvent} lists the changed keys.
+ * <p>
+ * Each poll is delayed by the interval plus a random jitter, so instances started together do
+ * not keep hitting the git server at the same time.
+ *
+ * @author Lee
+ * @date 2016/12/02 0002
+ */
+public class GitConfigPoller implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(GitConfigPoller.class);
+
+	public interface Remote {
+		/**
+		 * Fetches the label if its remote ref moved.
+		 *
+		 * @return the commit the label points to locally
+		 */
+		ObjectId fetch() throws Exception;
+	}
+
+	public interface Reader {
+		/**
+		 * @return the properties of the profiles at the commit, see {@link GitConfigReader#load(ObjectId, String[])}
+		 */
+		Map<String, Map<String, Object>> load(ObjectId commit, String[] profiles) throws Exception;
+	}
+
+	private final Reader                        reader;
+	private final Remote                        remote;
+	private final List<GitConfigPropertySource> propertySources;
+	private final AlpacaPropertySource          alpaca;
+	private final ApplicationEventPublisher     publisher;
+	private final long                          intervalMs;
+	private final long                          jitterMs;
+	private final ScheduledExecutorService      executor;
+	private       ObjectId                      current;
+
+	/**
+	 * @param gitDir the directory of the config repository
+	 */
+	public GitConfigPoller(Path gitDir, Remote remote, List<GitConfigPropertySource> propertySources, AlpacaPropertySource alpaca,
+	                       ApplicationEventPublisher publisher, long intervalMs, long jitterMs) {
+		this((commit, profiles) -> {
+			try (Git git = Git.open(gitDir.toFile())) {
+				return new GitConfigReader(git.getRepository()).load(commit, profiles);
+			}
+		}, remote, propertySources, alpaca, publisher, intervalMs, jitterMs);
+	}
+
+	/**
+	 * @param reader reads the commits the remote fetched, e.g. from a {@link GitConfigMirror}
+	 */
+	public GitConfigPoller(Reader reader, Remote remote, List<GitConfigPropertySource> propertySources, AlpacaPropertySource alpaca,
+	                       ApplicationEventPublisher publisher, long intervalMs, long jitterMs) {
+		this.reader = reader;
+		this.remote = remote;
+		this.propertySources = propertySources;
+		this.alpaca = alpaca;
+		this.publisher = publisher;
+		this.intervalMs = intervalMs;
+		this.jitterMs = jitterMs;
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "alpaca-git-poller");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public void start() {
+		schedule();
+		LOG.info("polling git config every {}ms", intervalMs);
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private void schedule() {
+		long delay = intervalMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+		executor.schedule(this::run, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void run() {
+		try {
+			poll();
+		} catch (Exception e) {
+			LOG.warn("Could not poll git config", e);
+		} finally {
+			if (!executor.isShutdown()) {
+				schedule();
+			}
+		}
+	}
+
+	private void poll() throws Exception {
+		ObjectId commit = remote.fetch();
+		if (commit == null || commit.equals(current)) {
+			return;
+		}
+		String[] profiles = new String[propertySources.size()];
+		for (int i = 0; i < profiles.length; i++) {
+			profiles[i] = propertySources.get(i).getProfile();
+		}
+		Map<String, Map<String, Object>> loaded = reader.load(commit, profiles);
+
+		Set<String> changed = new LinkedHashSet<>();
+		for (GitConfigPropertySource propertySource : propertySources) {
+			Map<String, Object> properties = loaded.get(propertySource.getProfile());
+			changed.addAll(propertySource.update(properties == null ? Collections.<String, Object>emptyMap() : properties));
+		}
+		current = commit;
+		if (changed.isEmpty()) {
+			return;
+		}
+		alpaca.invalidate();
+		LOG.info("git config changed at {}: {}", commit.name(), changed);
+		publisher.publishEvent(new GitConfigChangedEvent(this, commit.name(), Collections.unmodifiableSet(changed)));
+	}
+}
@@ -0,0 +1,67 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.util.ObjectUtils;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The properties of one profile yml of the git config. The properties are replaced as a whole,
+ * so the property source keeps its place in the environment when the git config changes.
+ *
+ * @author Lee
+ * @date 2016/12/02 0002
+ */
+public class GitConfigPropertySource extends EnumerablePropertySource<String> {
+	private volatile Map<String, Object> properties;
+
+	/**
+	 * @param properties the properties of {@code <profile>.yml}, empty if there is no such file
+	 */
+	public GitConfigPropertySource(String profile, Map<String, Object> properties) {
+		super("alpaca-git-config [" + profile + "]", profile);
+		this.properties = properties;
+	}
+
+	public String getProfile() {
+		return getSource();
+	}
+
+	/**
+	 * @return the keys that were added, changed or removed
+	 */
+	Set<String> update(Map<String, Object> updated) {
+		Map<String, Object> previous = this.properties;
+		this.properties = updated;
+		if (updated == previous) {
+			// parsed from the same blob
+			return Collections.emptySet();
+		}
+		Set<String> changed = new LinkedHashSet<>();
+		for (Map.Entry<String, Object> entry : updated.entrySet()) {
+			if (!ObjectUtils.nullSafeEquals(entry.getValue(), previous.get(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+		for (String key : previous.keySet()) {
+			if (!updated.containsKey(key)) {
+				changed.add(key);
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public Object getProperty(String name) {
+		return this.properties.get(name);
+	}
+
+	@Override
+	public String[] getPropertyNames() {
+		Set<String> names = this.properties.keySet();
+		return names.toArray(new String[names.size()]);
+	}
+}
@@ -0,0 +1,120 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads the profile yml files of a label straight from the object database of the config
+ * repository, without a working tree. A label is a remote branch, a tag, a local branch or a
+ * commit id, so the config can be pinned to an exact commit.
+ * <p>
+ * Parsed files are cached by blob id for the lifetime of the JVM: a file that did not change
+ * between two labels, or two startups in the same JVM, is parsed once.
+ *
+ * @author Lee
+ * @date 2016/12/01 0001
+ */
+public class GitConfigReader {
+	private static final Logger LOG  = LoggerFactory.getLogger(GitConfigReader.class);
+	private static final String NAME = "alpaca-zookeeper-config";
+
+	private static final ConcurrentMap<ObjectId, Map<String, Object>> PARSED = new ConcurrentHashMap<>();
+
+	private final Repository repository;
+
+	public GitConfigReader(Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * @return the commit the label points to, or {@code null} if the repository does not know it
+	 */
+	public ObjectId resolve(String label) throws IOException {
+		ObjectId commit = repository.resolve(Constants.R_REMOTES + "origin/" + label + "^{commit}");
+		if (commit == null) {
+			// tags, local branches and commit ids
+			commit = repository.resolve(label + "^{commit}");
+		}
+		return commit;
+	}
+
+	/**
+	 * Reads {@code <profile>.yml} of every profile at the commit. Profiles without a file are left out.
+	 *
+	 * @return the unmodifiable properties by profile, in the order of the profiles
+	 */
+	public Map<String, Map<String, Object>> load(ObjectId commit, String[] profiles) throws IOException {
+		Map<String, Map<String, Object>> properties = new LinkedHashMap<>();
+		try (ObjectReader reader = repository.newObjectReader(); RevWalk revWalk = new RevWalk(reader)) {
+			RevTree tree = revWalk.parseCommit(commit).getTree();
+			for (String profile : profiles) {
+				try (TreeWalk treeWalk = TreeWalk.forPath(reader, profile + ".yml", tree)) {
+					if (treeWalk == null) {
+						LOG.debug("no {}.yml at {}", profile, commit.name());
+						continue;
+					}
+					properties.put(profile, parse(reader, treeWalk.getObjectId(0)));
+				}
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Reads the profiles at the commit the label points to.
+	 *
+	 * @throws IllegalStateException if the label is unknown
+	 */
+	public Map<String, Map<String, Object>> load(String label, String[] profiles) throws IOException {
+		ObjectId commit = resolve(label);
+		if (commit == null) {
+			throw new IllegalStateException("Unknown label '" + label + "' in " + repository.getDirectory());
+		}
+		LOG.info("loading {}.yml at {} ({})", profiles, label, commit.name());
+		return load(commit, profiles);
+	}
+
+	private Map<String, Object> parse(ObjectReader reader, ObjectId blob) throws IOException {
+		Map<String, Object> properties = PARSED.get(blob);
+		if (properties == null) {
+			byte[] bytes = reader.open(blob, Constants.OBJ_BLOB).getBytes();
+			properties = Collections.unmodifiableMap(properties(new YamlPropertySourceLoader().load(NAME, new ByteArrayResource(bytes), null)));
+			Map<String, Object> parsed = PARSED.putIfAbsent(blob.copy(), properties);
+			if (parsed != null) {
+				properties = parsed;
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * @return the properties of a loaded yml file, empty if the file was empty
+	 */
+	static Map<String, Object> properties(PropertySource<?> propertySource) {
+		Map<String, Object> properties = new LinkedHashMap<>();
+		if (propertySource instanceof EnumerablePropertySource) {
+			for (String name : ((EnumerablePropertySource<?>) propertySource).getPropertyNames()) {
+				properties.put(name, propertySource.getProperty(name));
+			}
+		}
+		return properties;
+	}
+}
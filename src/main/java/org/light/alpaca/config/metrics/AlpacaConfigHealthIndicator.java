@@ -0,0 +1,39 @@
+package org.light.alpaca.config.metrics;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+
+/**
+ * Down while the zookeeper client is disconnected. The details carry the config age and the
+ * read latencies, to tell a slow ensemble from a stale config.
+ *
+ * @author Lee
+ * @date 2016/12/07 0007
+ */
+public class AlpacaConfigHealthIndicator extends AbstractHealthIndicator {
+	private final CuratorFramework curator;
+	private final ConfigMetrics    metrics;
+
+	public AlpacaConfigHealthIndicator(CuratorFramework curator, ConfigMetrics metrics) {
+		this.curator = curator;
+		this.metrics = metrics;
+	}
+
+	@Override
+	protected void doHealthCheck(Health.Builder builder) throws Exception {
+		boolean connected = curator.getZookeeperClient().isConnected();
+		if (connected) {
+			builder.up();
+		} else {
+			builder.down();
+		}
+		builder.withDetail("connectString", curator.getZookeeperClient().getCurrentConnectionString())
+		       .withDetail("connected", connected)
+		       .withDetail("contexts", metrics.getContexts().size())
+		       .withDetail("configAgeMs", metrics.getConfigAgeMillis())
+		       .withDetail("getDataMeanMs", metrics.getGetData().getMeanMillis())
+		       .withDetail("getDataMaxMs", metrics.getGetData().getMaxMillis())
+		       .withDetail("errors", metrics.getReadErrors());
+	}
+}
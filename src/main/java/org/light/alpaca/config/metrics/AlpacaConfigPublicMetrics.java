@@ -0,0 +1,72 @@
+package org.light.alpaca.config.metrics;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes {@link ConfigMetrics} at the metrics endpoint, all below {@code alpaca.}; durations are
+ * in milliseconds.
+ *
+ * @author Lee
+ * @date 2016/12/07 0007
+ */
+public class AlpacaConfigPublicMetrics implements PublicMetrics {
+	private final ConfigMetrics metrics;
+
+	public AlpacaConfigPublicMetrics(ConfigMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> result = new ArrayList<>();
+		addHistogram(result, "alpaca.zookeeper.getData", metrics.getGetData());
+		addHistogram(result, "alpaca.zookeeper.getChildren", metrics.getGetChildren());
+		addHistogram(result, "alpaca.zookeeper.checkExists", metrics.getCheckExists());
+		result.add(new Metric<>("alpaca.zookeeper.errors", metrics.getReadErrors()));
+
+		long bytes = 0;
+		for (Map.Entry<String, ConfigMetrics.ContextLoad> entry : metrics.getContexts().entrySet()) {
+			String name = "alpaca.zookeeper.context." + metricName(entry.getKey());
+			ConfigMetrics.ContextLoad load = entry.getValue();
+			result.add(new Metric<>(name + ".nodes", load.getNodes()));
+			result.add(new Metric<>(name + ".bytes", load.getBytes()));
+			result.add(new Metric<>(name + ".time", load.getMillis()));
+			bytes += load.getBytes();
+		}
+		result.add(new Metric<>("alpaca.zookeeper.contexts", metrics.getContexts().size()));
+		result.add(new Metric<>("alpaca.zookeeper.bytes", bytes));
+
+		for (Map.Entry<String, LatencyHistogram> entry : metrics.getGit().entrySet()) {
+			addHistogram(result, "alpaca.git." + entry.getKey(), entry.getValue());
+		}
+		result.add(new Metric<>("alpaca.config.age", metrics.getConfigAgeMillis()));
+		return result;
+	}
+
+	private static void addHistogram(List<Metric<?>> result, String name, LatencyHistogram histogram) {
+		result.add(new Metric<>(name + ".count", histogram.getCount()));
+		result.add(new Metric<>(name + ".mean", histogram.getMeanMillis()));
+		result.add(new Metric<>(name + ".max", histogram.getMaxMillis()));
+		long[] bounds = LatencyHistogram.getBucketBounds();
+		long[] counts = histogram.getBucketCounts();
+		// cumulative, like the 'le' buckets of prometheus
+		long cumulative = 0;
+		for (int i = 0; i < bounds.length; i++) {
+			cumulative += counts[i];
+			result.add(new Metric<>(name + ".lt" + bounds[i] + "ms", cumulative));
+		}
+	}
+
+	/**
+	 * /config/applications/default/dev becomes config.applications.default.dev
+	 */
+	private static String metricName(String context) {
+		return (context.startsWith("/") ? context.substring(1) : context).replace('/', '.');
+	}
+}
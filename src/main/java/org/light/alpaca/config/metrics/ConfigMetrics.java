@@ -0,0 +1,162 @@
+package org.light.alpaca.config.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects what the config loaders do: zookeeper reads, what each context cost to load, the git
+ * steps, and when the loaded config was last known to be current.
+ * <p>
+ * Free of actuator classes; {@link AlpacaConfigPublicMetrics} and {@link AlpacaConfigHealthIndicator}
+ * expose it when the actuator is on the classpath.
+ *
+ * @author Lee
+ * @date 2016/12/07 0007
+ */
+public class ConfigMetrics {
+	private final LatencyHistogram getData     = new LatencyHistogram();
+	private final LatencyHistogram getChildren = new LatencyHistogram();
+	private final LatencyHistogram checkExists = new LatencyHistogram();
+	private final LongAdder        readErrors  = new LongAdder();
+
+	private final ConcurrentMap<String, ContextLoad>      contexts = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LatencyHistogram> git      = new ConcurrentHashMap<>();
+
+	/**
+	 * when the git config was last found current, 0 if never
+	 */
+	private volatile long    gitConfirmedAt;
+	private volatile boolean gitUsed;
+
+	public void getData(long nanos) {
+		getData.record(nanos);
+	}
+
+	public void getChildren(long nanos) {
+		getChildren.record(nanos);
+	}
+
+	public void checkExists(long nanos) {
+		checkExists.record(nanos);
+	}
+
+	public void readError() {
+		readErrors.increment();
+	}
+
+	/**
+	 * A context was read from zookeeper.
+	 */
+	public void contextLoaded(String context, int nodes, long bytes, long nanos) {
+		contexts.put(context, new ContextLoad(nodes, bytes, nanos, System.currentTimeMillis()));
+	}
+
+	/**
+	 * A context was taken from its local snapshot without asking zookeeper; it counts as
+	 * unconfirmed until {@link #contextConfirmed}.
+	 */
+	public void contextFromSnapshot(String context) {
+		contexts.putIfAbsent(context, new ContextLoad(0, 0, 0, 0));
+	}
+
+	/**
+	 * A context was found unchanged in zookeeper, or brought up to date.
+	 */
+	public void contextConfirmed(String context) {
+		ContextLoad load = contexts.get(context);
+		if (load != null) {
+			load.confirmedAt = System.currentTimeMillis();
+		} else {
+			contexts.putIfAbsent(context, new ContextLoad(0, 0, 0, System.currentTimeMillis()));
+		}
+	}
+
+	public void gitStep(String step, long millis) {
+		gitUsed = true;
+		git.computeIfAbsent(step, name -> new LatencyHistogram()).record(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	/**
+	 * The git remote was reached and the local copy is up to date with it.
+	 */
+	public void gitConfirmed() {
+		gitConfirmedAt = System.currentTimeMillis();
+	}
+
+	public LatencyHistogram getGetData() {
+		return getData;
+	}
+
+	public LatencyHistogram getGetChildren() {
+		return getChildren;
+	}
+
+	public LatencyHistogram getCheckExists() {
+		return checkExists;
+	}
+
+	public long getReadErrors() {
+		return readErrors.sum();
+	}
+
+	public Map<String, ContextLoad> getContexts() {
+		return Collections.unmodifiableMap(contexts);
+	}
+
+	public Map<String, LatencyHistogram> getGit() {
+		return Collections.unmodifiableMap(git);
+	}
+
+	/**
+	 * @return the time since the least recently confirmed part of the config was last known to be
+	 * current, or -1 if some part was never confirmed, e.g. after starting from local snapshots
+	 * or a local git copy
+	 */
+	public long getConfigAgeMillis() {
+		if (gitUsed && gitConfirmedAt == 0) {
+			return -1;
+		}
+		long oldest = gitUsed ? gitConfirmedAt : Long.MAX_VALUE;
+		for (ContextLoad load : contexts.values()) {
+			if (load.confirmedAt == 0) {
+				return -1;
+			}
+			oldest = Math.min(oldest, load.confirmedAt);
+		}
+		return oldest == Long.MAX_VALUE ? -1 : System.currentTimeMillis() - oldest;
+	}
+
+	public static class ContextLoad {
+		private final    int  nodes;
+		private final    long bytes;
+		private final    long nanos;
+		private volatile long confirmedAt;
+
+		ContextLoad(int nodes, long bytes, long nanos, long confirmedAt) {
+			this.nodes = nodes;
+			this.bytes = bytes;
+			this.nanos = nanos;
+			this.confirmedAt = confirmedAt;
+		}
+
+		public int getNodes() {
+			return nodes;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public double getMillis() {
+			return nanos / 1e6;
+		}
+
+		public long getConfirmedAt() {
+			return confirmedAt;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.light.alpaca.config.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations into fixed millisecond buckets, along with their count, sum and maximum.
+ *
+ * @author Lee
+ * @date 2016/12/07 0007
+ */
+public class LatencyHistogram {
+	private static final long[] BOUNDS_MS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+	private final LongAdder[] buckets  = new LongAdder[BOUNDS_MS.length + 1];
+	private final LongAdder   count    = new LongAdder();
+	private final LongAdder   sumNanos = new LongAdder();
+	private final AtomicLong  maxNanos = new AtomicLong();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		int i = 0;
+		while (i < BOUNDS_MS.length && millis >= BOUNDS_MS[i]) {
+			i++;
+		}
+		buckets[i].increment();
+		count.increment();
+		sumNanos.add(nanos);
+		long max;
+		while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+			// retry
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public double getMeanMillis() {
+		long count = this.count.sum();
+		return count == 0 ? 0 : sumNanos.sum() / 1e6 / count;
+	}
+
+	public double getMaxMillis() {
+		return maxNanos.get() / 1e6;
+	}
+
+	/**
+	 * @return the upper bounds of the buckets in milliseconds, exclusive; the last bucket is unbounded
+	 */
+	public static long[] getBucketBounds() {
+		return BOUNDS_MS.clone();
+	}
+
+	/**
+	 * @return the number of durations in each bucket
+	 */
+	public long[] getBucketCounts() {
+		long[] counts = new long[buckets.length];
+		for (int i = 0; i < buckets.length; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return counts;
+	}
+}
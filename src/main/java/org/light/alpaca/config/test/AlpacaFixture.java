@@ -0,0 +1,28 @@
+package org.light.alpaca.config.test;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Starts the test context from a config fixture instead of git and zookeeper, see
+ * {@link org.light.alpaca.config.bootstrap.AlpacaContextInitializer#FIXTURE}. Needs the
+ * {@link AlpacaSpringApplicationContextLoader}. The fixture is part of the key of the test context
+ * cache, see {@link AlpacaFixtureContextCustomizerFactory}.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Inherited
+public @interface AlpacaFixture {
+	/**
+	 * the resource location of the fixture
+	 */
+	String value() default "classpath:alpaca-fixture";
+}
@@ -0,0 +1,62 @@
+package org.light.alpaca.config.test;
+
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.test.context.ContextConfigurationAttributes;
+import org.springframework.test.context.ContextCustomizer;
+import org.springframework.test.context.ContextCustomizerFactory;
+import org.springframework.test.context.MergedContextConfiguration;
+
+import java.util.List;
+
+/**
+ * Makes the {@link AlpacaFixture} of a test class part of its {@link MergedContextConfiguration},
+ * and so of the key of the test context cache: test classes with different fixtures get different
+ * contexts. Registered in {@code META-INF/spring.factories}; the
+ * {@link AlpacaSpringApplicationContextLoader} reads the fixture from here.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class AlpacaFixtureContextCustomizerFactory implements ContextCustomizerFactory {
+	@Override
+	public ContextCustomizer createContextCustomizer(Class<?> testClass, List<ContextConfigurationAttributes> configAttributes) {
+		AlpacaFixture fixture = AnnotatedElementUtils.findMergedAnnotation(testClass, AlpacaFixture.class);
+		return fixture == null ? null : new FixtureCustomizer(fixture.value());
+	}
+
+	/**
+	 * @return the fixture location of the test context, or {@code null} if it has none
+	 */
+	static String fixture(MergedContextConfiguration config) {
+		for (ContextCustomizer customizer : config.getContextCustomizers()) {
+			if (customizer instanceof FixtureCustomizer) {
+				return ((FixtureCustomizer) customizer).location;
+			}
+		}
+		return null;
+	}
+
+	static final class FixtureCustomizer implements ContextCustomizer {
+		private final String location;
+
+		private FixtureCustomizer(String location) {
+			this.location = location;
+		}
+
+		@Override
+		public void customizeContext(ConfigurableApplicationContext context, MergedContextConfiguration mergedConfig) {
+			// the loader starts the context from the fixture, this only tells the contexts apart
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof FixtureCustomizer && location.equals(((FixtureCustomizer) o).location);
+		}
+
+		@Override
+		public int hashCode() {
+			return location.hashCode();
+		}
+	}
+}
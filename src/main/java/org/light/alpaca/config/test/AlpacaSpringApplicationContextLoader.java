@@ -1,17 +1,27 @@
 package org.light.alpaca.config.test;
 
 import org.light.alpaca.config.bootstrap.AlpacaApplication;
+import org.light.alpaca.config.bootstrap.AlpacaBootstrapCache;
+import org.light.alpaca.config.bootstrap.AlpacaContextInitializer;
 import org.springframework.boot.test.SpringApplicationContextLoader;
 import org.springframework.context.ApplicationContext;
 import org.springframework.test.context.MergedContextConfiguration;
 
 /**
+ * Bootstraps every test context through the JVM-wide {@link AlpacaBootstrapCache}, so only the
+ * first one syncs the git config and walks the zookeeper trees. Test classes annotated with
+ * {@link AlpacaFixture} start from their fixture instead, without any external service.
+ *
  * @author Lee
  * @date 2016/10/20 0020
  */
 public class AlpacaSpringApplicationContextLoader extends SpringApplicationContextLoader {
 	@Override
 	public ApplicationContext loadContext(MergedContextConfiguration config) throws Exception {
-		return AlpacaApplication.run(config.getClasses());
+		String fixture = AlpacaFixtureContextCustomizerFactory.fixture(config);
+		if (fixture != null) {
+			return AlpacaApplication.run(config.getClasses(), "--" + AlpacaContextInitializer.FIXTURE + "=" + fixture);
+		}
+		return AlpacaApplication.run(config.getClasses(), AlpacaBootstrapCache.shared());
 	}
 }
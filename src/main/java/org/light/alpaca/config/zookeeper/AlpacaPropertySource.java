@@ -0,0 +1,156 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds all zookeeper and git derived property sources as layers of a single property source,
+ * so the environment has one source to ask instead of one per context and profile.
+ * <p>
+ * The layers are merged into one index with their precedence already applied, so a lookup is a
+ * single probe however many layers there are. The index is rebuilt on the first lookup after a
+ * layer was added, or after {@link #invalidate()} reported a change within a layer.
+ *
+ * @author Lee
+ * @date 2016/12/06 0006
+ */
+public class AlpacaPropertySource extends EnumerablePropertySource<List<EnumerablePropertySource<?>>> {
+	public static final  String NAME               = "alpaca";
+	private static final String DEFAULT_PROPERTIES = "defaultProperties";
+
+	/**
+	 * highest precedence first, guarded by this
+	 */
+	private final List<EnumerablePropertySource<?>> layers;
+	private volatile PropertyStore                   index;
+
+	private AlpacaPropertySource(List<EnumerablePropertySource<?>> layers) {
+		super(NAME, Collections.unmodifiableList(layers));
+		this.layers = layers;
+	}
+
+	/**
+	 * @return the alpaca property source of the environment, added right before the default
+	 * properties, or last, if there is none yet
+	 */
+	public static AlpacaPropertySource get(MutablePropertySources propertySources) {
+		synchronized (propertySources) {
+			PropertySource<?> propertySource = propertySources.get(NAME);
+			if (propertySource == null) {
+				propertySource = new AlpacaPropertySource(new ArrayList<>());
+				if (propertySources.contains(DEFAULT_PROPERTIES)) {
+					propertySources.addBefore(DEFAULT_PROPERTIES, propertySource);
+				} else {
+					propertySources.addLast(propertySource);
+				}
+			}
+			return (AlpacaPropertySource) propertySource;
+		}
+	}
+
+	public synchronized boolean contains(String name) {
+		return indexOf(name) >= 0;
+	}
+
+	public synchronized void addLast(EnumerablePropertySource<?> layer) {
+		remove(layer.getName());
+		layers.add(layer);
+		index = null;
+	}
+
+	/**
+	 * Adds the layer with a higher precedence than the layer named {@code relativeLayerName}.
+	 */
+	public synchronized void addBefore(String relativeLayerName, EnumerablePropertySource<?> layer) {
+		remove(layer.getName());
+		int i = indexOf(relativeLayerName);
+		if (i < 0) {
+			throw new IllegalArgumentException("Layer named '" + relativeLayerName + "' does not exist");
+		}
+		layers.add(i, layer);
+		index = null;
+	}
+
+	/**
+	 * @return the names of the layers, highest precedence first
+	 */
+	public synchronized List<String> getLayerNames() {
+		List<String> names = new ArrayList<>();
+		for (EnumerablePropertySource<?> layer : layers) {
+			names.add(layer.getName());
+		}
+		return names;
+	}
+
+	/**
+	 * To be called after the properties of a layer have changed. Waits for a rebuild in progress,
+	 * which may have missed the change.
+	 */
+	public synchronized void invalidate() {
+		index = null;
+	}
+
+	@Override
+	public Object getProperty(String name) {
+		return ConfigDecryptor.reveal(index().get(name));
+	}
+
+	@Override
+	public boolean containsProperty(String name) {
+		return index().containsKey(name);
+	}
+
+	@Override
+	public String[] getPropertyNames() {
+		return index().keys();
+	}
+
+	private PropertyStore index() {
+		PropertyStore index = this.index;
+		return index != null ? index : rebuild();
+	}
+
+	private synchronized PropertyStore rebuild() {
+		PropertyStore index = this.index;
+		if (index != null) {
+			return index;
+		}
+		PropertyStore.Builder builder = PropertyStore.builder(256);
+		// lowest precedence first, so higher layers overwrite
+		for (int i = layers.size() - 1; i >= 0; i--) {
+			EnumerablePropertySource<?> layer = layers.get(i);
+			for (String name : layer.getPropertyNames()) {
+				// secrets stay wrapped, so the index does not intern their plain text
+				Object value = layer instanceof ZookeeperPropertySource
+				               ? ((ZookeeperPropertySource) layer).getStoredValue(name) : layer.getProperty(name);
+				if (value != null) {
+					builder.put(name, value);
+				}
+			}
+		}
+		index = builder.build();
+		this.index = index;
+		return index;
+	}
+
+	private void remove(String name) {
+		int i = indexOf(name);
+		if (i >= 0) {
+			layers.remove(i);
+		}
+	}
+
+	private int indexOf(String name) {
+		for (int i = 0; i < layers.size(); i++) {
+			if (layers.get(i).getName().equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,19 @@
+package org.light.alpaca.config.zookeeper;
+
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+
+/**
+ * The keys of {@code {cipher}} values, see {@link ConfigDecryptor}. Implementations need a public
+ * no-argument constructor to be named in {@code zhao.alpaca.zookeeper.key-provider}.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public interface CipherKeyProvider {
+	/**
+	 * @param alias the key named in the value, {@code null} for the default key
+	 * @return the AES key
+	 */
+	SecretKey getKey(String alias) throws GeneralSecurityException;
+}
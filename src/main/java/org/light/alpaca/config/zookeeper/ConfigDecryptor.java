@@ -0,0 +1,192 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decrypts values stored as {@code {cipher}<base64>} or {@code {cipher}{key:<alias>}<base64>}, where
+ * the base64 holds a 12 byte iv followed by the AES/GCM cipher text of the UTF-8 value, see
+ * {@link #encrypt}. The key comes from a {@link CipherKeyProvider}.
+ * <p>
+ * A {@link ZookeeperPropertySource} decrypts all encrypted values of its context in one parallel
+ * batch when it loads or updates them, so a lookup of a secret costs the same as any other. The
+ * plain texts are kept by key together with their cipher text, and a value is only decrypted again
+ * once it changed, until its key is removed from the context or the application context closes.
+ * Property stores hold them as {@link Secret}s, which are never interned, print masked, and are
+ * unwrapped only when a property is looked up; snapshots and bundles keep the cipher text.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class ConfigDecryptor {
+	private static final Logger  LOG        = LoggerFactory.getLogger(ConfigDecryptor.class);
+	private static final Charset UTF_8      = Charset.forName("UTF-8");
+	public static final  String  PREFIX     = "{cipher}";
+	private static final String  KEY_PREFIX = "{key:";
+	private static final String  ALGORITHM  = "AES/GCM/NoPadding";
+	private static final int     IV_LENGTH  = 12;
+	private static final int     TAG_BITS   = 128;
+
+	private final CipherKeyProvider keyProvider;
+	/**
+	 * by context and key; values that cannot be decrypted have no plain text, so they are reported once
+	 */
+	private final ConcurrentMap<String, Secret> secrets = new ConcurrentHashMap<>();
+
+	public ConfigDecryptor(CipherKeyProvider keyProvider) {
+		this.keyProvider = keyProvider;
+	}
+
+	/**
+	 * @return whether the value is a {@code {cipher}} value
+	 */
+	public static boolean isEncrypted(Object value) {
+		return value instanceof String && ((String) value).startsWith(PREFIX);
+	}
+
+	/**
+	 * @return the plain text of a {@link Secret}, any other value as it is
+	 */
+	static Object reveal(Object value) {
+		return value instanceof Secret ? ((Secret) value).plainText : value;
+	}
+
+	/**
+	 * Decrypts the values of a context in parallel, reusing the plain text of values that did not change.
+	 *
+	 * @param values the encrypted values by key
+	 * @return the secrets by key, without the keys whose value cannot be decrypted
+	 */
+	Map<String, Secret> decryptAll(String context, Map<String, String> values) {
+		Map<String, Secret> decrypted = new ConcurrentHashMap<>();
+		values.entrySet().parallelStream().forEach(entry -> {
+			Secret secret = decrypt(context, entry.getKey(), entry.getValue());
+			if (secret != null) {
+				decrypted.put(entry.getKey(), secret);
+			}
+		});
+		return decrypted;
+	}
+
+	/**
+	 * @return the secret, or {@code null} if the value cannot be decrypted
+	 */
+	Secret decrypt(String context, String key, String value) {
+		String id = context + "|" + key;
+		Secret secret = secrets.get(id);
+		if (secret == null || !secret.cipherText.equals(value)) {
+			try {
+				secret = new Secret(value, decrypt(value));
+			} catch (GeneralSecurityException | IllegalArgumentException e) {
+				// the message never holds the value
+				LOG.warn("Could not decrypt {} of {}: {}", key, context, e.toString());
+				secret = new Secret(value, null);
+			}
+			secrets.put(id, secret);
+		}
+		return secret.plainText == null ? null : secret;
+	}
+
+	/**
+	 * Drops the values of {@code context} kept for any other keys than {@code keys}.
+	 *
+	 * @param keys every encrypted key of the context
+	 */
+	void retain(String context, Set<String> keys) {
+		String prefix = context + "|";
+		secrets.keySet().removeIf(id -> id.startsWith(prefix) && !keys.contains(id.substring(prefix.length())));
+	}
+
+	/**
+	 * Drops the values of {@code keys} of {@code context}, which are no longer encrypted.
+	 */
+	void forget(String context, Collection<String> keys) {
+		for (String key : keys) {
+			secrets.remove(context + "|" + key);
+		}
+	}
+
+	/**
+	 * Drops every value kept, the secrets already handed out stay valid.
+	 */
+	public void clear() {
+		secrets.clear();
+	}
+
+	private String decrypt(String value) throws GeneralSecurityException {
+		String alias = null;
+		String encoded = value.substring(PREFIX.length());
+		if (encoded.startsWith(KEY_PREFIX)) {
+			int end = encoded.indexOf('}');
+			if (end < 0) {
+				throw new IllegalArgumentException("Unterminated key name");
+			}
+			alias = encoded.substring(KEY_PREFIX.length(), end);
+			encoded = encoded.substring(end + 1);
+		}
+		byte[] bytes = Base64.getDecoder().decode(encoded.trim());
+		if (bytes.length < IV_LENGTH) {
+			throw new IllegalArgumentException("Cipher text too short");
+		}
+		Cipher cipher = Cipher.getInstance(ALGORITHM);
+		cipher.init(Cipher.DECRYPT_MODE, keyProvider.getKey(alias), new GCMParameterSpec(TAG_BITS, bytes, 0, IV_LENGTH));
+		return new String(cipher.doFinal(bytes, IV_LENGTH, bytes.length - IV_LENGTH), UTF_8);
+	}
+
+	/**
+	 * @param alias the key name to put into the value, {@code null} for the default key of the readers
+	 * @return the {@code {cipher}} value of {@code plainText}
+	 */
+	public static String encrypt(SecretKey key, String alias, String plainText) throws GeneralSecurityException {
+		byte[] iv = new byte[IV_LENGTH];
+		new SecureRandom().nextBytes(iv);
+		Cipher cipher = Cipher.getInstance(ALGORITHM);
+		cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+		byte[] encrypted = cipher.doFinal(plainText.getBytes(UTF_8));
+		ByteBuffer bytes = ByteBuffer.allocate(IV_LENGTH + encrypted.length).put(iv).put(encrypted);
+		return PREFIX + (alias == null ? "" : KEY_PREFIX + alias + "}") + Base64.getEncoder().encodeToString(bytes.array());
+	}
+
+	/**
+	 * A decrypted value. Equal to another secret with the same plain text, so re-encrypting a value
+	 * does not count as a change.
+	 */
+	static final class Secret {
+		private final String cipherText;
+		private final String plainText;
+
+		private Secret(String cipherText, String plainText) {
+			this.cipherText = cipherText;
+			this.plainText = plainText;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Secret && plainText.equals(((Secret) o).plainText);
+		}
+
+		@Override
+		public int hashCode() {
+			return plainText.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "******";
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package org.light.alpaca.config.zookeeper;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.UnrecoverableKeyException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads the keys of {@code {cipher}} values from a local keystore file, e.g. one created with
+ * <pre>
+ * keytool -genseckey -keyalg AES -keysize 256 -storetype JCEKS -keystore alpaca.jceks -alias alpaca
+ * </pre>
+ * The store is read once; each key is recovered on first use.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class KeyStoreKeyProvider implements CipherKeyProvider {
+	private final KeyStore                         keyStore;
+	private final char[]                           password;
+	private final String                           defaultAlias;
+	private final ConcurrentMap<String, SecretKey> keys = new ConcurrentHashMap<>();
+
+	/**
+	 * @param type     the keystore type, JCEKS or PKCS12
+	 * @param password the password of the store, and of its keys
+	 */
+	public KeyStoreKeyProvider(Path location, String type, char[] password, String defaultAlias) throws IOException, GeneralSecurityException {
+		this.keyStore = KeyStore.getInstance(type);
+		try (InputStream in = Files.newInputStream(location)) {
+			keyStore.load(in, password);
+		}
+		this.password = password.clone();
+		this.defaultAlias = defaultAlias;
+	}
+
+	@Override
+	public SecretKey getKey(String alias) throws GeneralSecurityException {
+		String name = alias == null ? defaultAlias : alias;
+		SecretKey key = keys.get(name);
+		if (key == null) {
+			Key stored = keyStore.getKey(name, password);
+			if (!(stored instanceof SecretKey)) {
+				throw new UnrecoverableKeyException("No secret key '" + name + "' in the keystore");
+			}
+			key = (SecretKey) stored;
+			keys.putIfAbsent(name, key);
+		}
+		return key;
+	}
+}
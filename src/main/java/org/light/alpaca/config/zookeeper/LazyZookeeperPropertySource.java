@@ -0,0 +1,400 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StringUtils;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A context read key by key instead of as a whole, for trees far larger than the part of them an
+ * application uses. {@code a.b.c} is looked up as the znode {@code <context>/a/b/c}, or any other
+ * split of the key into node names, and falls back to the root yaml like a
+ * {@link ZookeeperPropertySource} does. Values and misses are cached, and so are the children of
+ * the nodes visited on the way, so a key is read at most once, and most misses cost no read at all.
+ * <p>
+ * The source lists the keys below the prefixes {@link #enumerate enumerated} so far, which reads
+ * each of those subtrees in one go right before a @ConfigurationProperties bean binds it, so the
+ * binder finds nested objects, maps and lists the same way it does in a loaded context. A prefix
+ * covering the whole context reads all of it once, and all lookups are served from it afterwards.
+ * Lazy contexts are not watched: a key keeps the value of its first lookup. A key that cannot be
+ * read, e.g. during an outage, is served from the local snapshot of the whole context, if the
+ * tree loader keeps one, and looked up again next time.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class LazyZookeeperPropertySource extends EnumerablePropertySource<CuratorFramework> {
+	private static final Logger  LOG     = LoggerFactory.getLogger(LazyZookeeperPropertySource.class);
+	private static final Charset UTF_8   = Charset.forName("UTF-8");
+	private static final Object  MISSING = new Object();
+
+	private final String              context;
+	private final String              prefix;
+	private final ZookeeperTreeLoader treeLoader;
+	private final ConfigDecryptor     decryptor;
+
+	/**
+	 * values by key without the prefix, {@link #MISSING} for keys that have none; decrypted values as secrets
+	 */
+	private final ConcurrentMap<String, Object>       values     = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, List<String>> children   = new ConcurrentHashMap<>();
+	/**
+	 * the subtrees enumerated so far, by key without the prefix, and the names of their keys in tree order
+	 */
+	private final Set<String>                         scopes     = ConcurrentHashMap.newKeySet();
+	private final Set<String>                         enumerated = Collections.synchronizedSet(new LinkedHashSet<>());
+	private volatile PropertyStore                    rootProperties;
+	private volatile ZookeeperPropertySource          loaded;
+	private volatile ZookeeperPropertySource          snapshot;
+
+	public LazyZookeeperPropertySource(String context, String prefix, ZookeeperTreeLoader treeLoader) {
+		this(context, prefix, treeLoader, null);
+	}
+
+	/**
+	 * @param decryptor decrypts {@code {cipher}} values as they are read, may be {@code null}
+	 */
+	public LazyZookeeperPropertySource(String context, String prefix, ZookeeperTreeLoader treeLoader, ConfigDecryptor decryptor) {
+		super(context, treeLoader.getCurator());
+		this.context = context.startsWith("/") ? context : "/" + context;
+		this.prefix = StringUtils.hasText(prefix) ? prefix + "." : "";
+		this.treeLoader = treeLoader;
+		this.decryptor = decryptor;
+	}
+
+	public String getContext() {
+		return this.context;
+	}
+
+	@Override
+	public Object getProperty(String name) {
+		ZookeeperPropertySource loaded = this.loaded;
+		if (loaded != null) {
+			return loaded.getProperty(name);
+		}
+		if (!name.startsWith(prefix) || name.length() == prefix.length()) {
+			return null;
+		}
+		String key = name.substring(prefix.length());
+		Object value = values.get(key);
+		if (value == null) {
+			try {
+				value = find(this.context, key.split("\\.", -1), 0);
+				if (value == null) {
+					value = rootProperties().get(key);
+				}
+				if (decryptor != null && ConfigDecryptor.isEncrypted(value)) {
+					value = decryptor.decrypt(this.context, name, (String) value);
+				}
+			} catch (Exception e) {
+				// not cached, the next lookup tries again
+				Object snapshotValue = snapshotValue(name);
+				LOG.warn("Could not read {} of {}, {}: {}", key, context, snapshotValue != null ? "using its snapshot value" : "no snapshot value",
+				         e.toString());
+				return snapshotValue;
+			}
+			value = value == null ? MISSING : value;
+			values.putIfAbsent(key, value);
+			LOG.trace("read {} of {}", key, context);
+		}
+		return value == MISSING ? null : ConfigDecryptor.reveal(value);
+	}
+
+	/**
+	 * @return the value of {@code name} in the local snapshot of the context, {@code null} if there is none
+	 */
+	private Object snapshotValue(String name) {
+		ZookeeperPropertySource snapshot = this.snapshot;
+		if (snapshot == null) {
+			ZookeeperSnapshotStore snapshotStore = treeLoader.getSnapshotStore();
+			ZookeeperTree tree = snapshotStore == null ? null : snapshotStore.read(context);
+			if (tree == null) {
+				return null;
+			}
+			snapshot = this.snapshot = new ZookeeperPropertySource(getName(), StringUtils.trimTrailingCharacter(prefix, '.'), getSource(), tree, decryptor);
+		}
+		return snapshot.getProperty(name);
+	}
+
+	/**
+	 * Looks the key up, since the names list only the enumerated part of the context.
+	 */
+	@Override
+	public boolean containsProperty(String name) {
+		return getProperty(name) != null;
+	}
+
+	/**
+	 * @return the keys below the prefixes enumerated so far, every key once the whole context was read
+	 */
+	@Override
+	public String[] getPropertyNames() {
+		ZookeeperPropertySource loaded = this.loaded;
+		if (loaded != null) {
+			return loaded.getPropertyNames();
+		}
+		synchronized (enumerated) {
+			return enumerated.toArray(new String[enumerated.size()]);
+		}
+	}
+
+	/**
+	 * Reads the subtree of the context below {@code boundPrefix} in one go and lists its keys, and
+	 * those of the root yaml below it, among {@link #getPropertyNames()}. A prefix the context lies
+	 * below reads the whole context; any other prefix reads nothing.
+	 *
+	 * @param boundPrefix the prefix of a @ConfigurationProperties bean about to be bound
+	 */
+	public void enumerate(String boundPrefix) {
+		if (this.loaded != null) {
+			return;
+		}
+		String scope;
+		if (boundPrefix.isEmpty() || prefix.startsWith(boundPrefix + ".")) {
+			scope = "";
+		} else if (boundPrefix.startsWith(prefix)) {
+			scope = boundPrefix.substring(prefix.length());
+		} else {
+			return;
+		}
+		if (scope.isEmpty()) {
+			loaded();
+			return;
+		}
+		if (!scopes.add(scope)) {
+			return;
+		}
+		try {
+			List<String> paths = new ArrayList<>();
+			nodes(this.context, scope.split("\\.", -1), 0, paths);
+			for (String path : paths) {
+				enumerate(ZookeeperTreeLoader.await(treeLoader.load(path)), path, scope);
+			}
+			PropertyStore rootProperties = rootProperties();
+			for (int i = 0; i < rootProperties.size(); i++) {
+				String key = rootProperties.getKey(i);
+				if (key.equals(scope) || key.startsWith(scope + ".") || key.startsWith(scope + "[")) {
+					enumerated.add(prefix + key);
+				}
+			}
+			LOG.trace("enumerated {} of {}", scope, context);
+		} catch (Exception e) {
+			// the next bean binding the prefix tries again
+			scopes.remove(scope);
+			LOG.warn("Could not read {} of {}: {}", scope, context, e.toString());
+		}
+	}
+
+	/**
+	 * Caches the value and children of {@code path} and of the nodes below it, whose tree has been read.
+	 */
+	private void enumerate(ZookeeperTree tree, String path, String key) {
+		List<String> nodeChildren = tree.getChildren(path);
+		if (nodeChildren == null) {
+			return;
+		}
+		children.putIfAbsent(path, nodeChildren);
+		String value = ZookeeperPropertySource.valueOf(tree, path, tree.getData(path), nodeChildren);
+		if (value != null) {
+			Object stored = value;
+			if (decryptor != null && ConfigDecryptor.isEncrypted(value)) {
+				stored = decryptor.decrypt(this.context, prefix + key, value);
+			}
+			values.putIfAbsent(key, stored == null ? MISSING : stored);
+			if (stored != null) {
+				enumerated.add(prefix + key);
+			}
+		}
+		for (String child : nodeChildren) {
+			if (!ZookeeperValues.isChunk(child)) {
+				enumerate(tree, path + "/" + child, key + "." + child);
+			}
+		}
+	}
+
+	private ZookeeperPropertySource loaded() {
+		ZookeeperPropertySource loaded = this.loaded;
+		if (loaded == null) {
+			synchronized (this) {
+				loaded = this.loaded;
+				if (loaded == null) {
+					ZookeeperTree tree = ZookeeperTreeLoader.await(treeLoader.load(context));
+					loaded = this.loaded = new ZookeeperPropertySource(getName(), StringUtils.trimTrailingCharacter(prefix, '.'), getSource(), tree, decryptor);
+					values.clear();
+					children.clear();
+					enumerated.clear();
+				}
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Tries every split of {@code segments[from..]} into node names below {@code path}, one segment
+	 * per node first. Node names may contain dots, so {@code a.b} may also be the node {@code a.b}.
+	 *
+	 * @return the value of the first node matching the key, or {@code null} if there is none
+	 */
+	private String find(String path, String[] segments, int from) throws Exception {
+		if (from == segments.length) {
+			return valueOf(path);
+		}
+		List<String> names = children(path);
+		if (names.isEmpty()) {
+			return null;
+		}
+		StringBuilder name = new StringBuilder();
+		for (int to = from; to < segments.length; to++) {
+			if (to > from) {
+				name.append('.');
+			}
+			name.append(segments[to]);
+			String child = name.toString();
+			if (ZookeeperBundle.isBundle(this.context, path, child) || ZookeeperValues.isChunk(child) || !names.contains(child)) {
+				continue;
+			}
+			String value = find(path + "/" + child, segments, to + 1);
+			if (value != null) {
+				return value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Collects the nodes matching the key {@code segments[from..]}, in the order {@link #find} tries them.
+	 */
+	private void nodes(String path, String[] segments, int from, List<String> found) throws Exception {
+		if (from == segments.length) {
+			found.add(path);
+			return;
+		}
+		List<String> names = children(path);
+		StringBuilder name = new StringBuilder();
+		for (int to = from; to < segments.length; to++) {
+			if (to > from) {
+				name.append('.');
+			}
+			name.append(segments[to]);
+			String child = name.toString();
+			if (!ZookeeperBundle.isBundle(this.context, path, child) && !ZookeeperValues.isChunk(child) && names.contains(child)) {
+				nodes(path + "/" + child, segments, to + 1, found);
+			}
+		}
+	}
+
+	/**
+	 * The same rule as {@link ZookeeperPropertySource}: a node yields a key if it has data, or if
+	 * it is an empty leaf.
+	 */
+	private String valueOf(String path) throws Exception {
+		Stat stat = new Stat();
+		byte[] data = getData(path, stat);
+		if (data == null) {
+			return null;
+		}
+		if (data.length == 0) {
+			return stat.getNumChildren() == 0 ? "" : null;
+		}
+		if (ZookeeperValues.isEncoded(data)) {
+			String value = ZookeeperValues.text(encoded(path, data), path, data);
+			if (value == null && ZookeeperValues.isChunked(data)) {
+				// a writer replaced the chunks after the header was read, the header names the new ones now
+				data = getData(path, stat);
+				value = data == null ? null : ZookeeperValues.text(encoded(path, data), path, data);
+			}
+			if (value == null) {
+				// not cached as a miss, the key still exists
+				throw new IllegalStateException("Could not decode the value of " + path);
+			}
+			return value;
+		}
+		return new String(data, UTF_8);
+	}
+
+	private PropertyStore rootProperties() throws Exception {
+		PropertyStore rootProperties = this.rootProperties;
+		if (rootProperties != null) {
+			return rootProperties;
+		}
+		rootProperties = PropertyStore.EMPTY;
+		byte[] data = getData(context, new Stat());
+		if (data != null && data.length > 0) {
+			Resource resource = new ByteArrayResource(data);
+			if (ZookeeperValues.isEncoded(data)) {
+				InputStream in = ZookeeperValues.open(encoded(context, data), context, data);
+				if (in == null) {
+					throw new IllegalStateException("Could not decode the root yaml of " + context);
+				}
+				resource = new InputStreamResource(in, context);
+			}
+			MapPropertySource propertySource = (MapPropertySource) new YamlPropertySourceLoader().load(getName(), resource, null);
+			if (propertySource != null) {
+				PropertyStore.Builder root = PropertyStore.builder(propertySource.getSource().size());
+				for (Map.Entry<String, Object> entry : propertySource.getSource().entrySet()) {
+					root.put(entry.getKey(), entry.getValue());
+				}
+				rootProperties = root.build();
+			}
+		}
+		this.rootProperties = rootProperties;
+		return rootProperties;
+	}
+
+	/**
+	 * @return a tree of {@code path} and its chunks, enough for {@link ZookeeperValues} to decode its value
+	 */
+	private ZookeeperTree encoded(String path, byte[] data) throws Exception {
+		Map<String, byte[]> nodes = new HashMap<>();
+		nodes.put(path, data);
+		// only the generation the header names, not the cached children, which may predate it
+		for (String chunkPath : ZookeeperValues.chunkPaths(path, data)) {
+			byte[] chunk = getData(chunkPath, new Stat());
+			if (chunk != null) {
+				nodes.put(chunkPath, chunk);
+			}
+		}
+		return new ZookeeperTree(path, null, nodes, Collections.<String, List<String>>emptyMap());
+	}
+
+	private List<String> children(String path) throws Exception {
+		List<String> names = children.get(path);
+		if (names == null) {
+			try {
+				names = getSource().getChildren().forPath(path);
+			} catch (KeeperException.NoNodeException e) {
+				names = Collections.emptyList();
+			}
+			children.putIfAbsent(path, names);
+		}
+		return names;
+	}
+
+	private byte[] getData(String path, Stat stat) throws Exception {
+		try {
+			return getSource().getData().storingStatIn(stat).forPath(path);
+		} catch (KeeperException.NoNodeException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.curator.ensemble.EnsembleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the zookeeper client only the servers of a connect string that answer fastest, typically
+ * the ones in the same zone. The client picks one of the servers it is given at random, so
+ * leaving the others out is the only way to prefer some.
+ * <p>
+ * The servers are probed with a tcp connect when the provider starts, on at most
+ * {@link #MAX_PROBE_THREADS} threads of its own, and those within twice the best time, plus
+ * {@link #TOLERANCE_MS}, are kept. The choice stays fixed, since a new connect
+ * string makes curator reconnect, until none of the chosen servers can be reached any more; then
+ * the servers are probed again. If no server answers at all, the whole connect string is used.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class NearestServersEnsembleProvider implements EnsembleProvider {
+	private static final Logger LOG               = LoggerFactory.getLogger(NearestServersEnsembleProvider.class);
+	static final         long   TOLERANCE_MS      = 2;
+	static final         int    PROBE_TIMEOUT_MS  = 1000;
+	static final         long   RECHECK_MS        = 30000;
+	static final         int    MAX_PROBE_THREADS = 8;
+
+	private final List<String>       servers;
+	private final String             chroot;
+	private volatile String          connectionString;
+	private volatile List<String>    chosen;
+	private ScheduledExecutorService executor;
+
+	public NearestServersEnsembleProvider(String connectString) {
+		int slash = connectString.indexOf('/');
+		this.chroot = slash < 0 ? "" : connectString.substring(slash);
+		this.servers = new ArrayList<>();
+		for (String server : (slash < 0 ? connectString : connectString.substring(0, slash)).split(",")) {
+			if (!server.trim().isEmpty()) {
+				servers.add(server.trim());
+			}
+		}
+		this.chosen = servers;
+		this.connectionString = connectString;
+	}
+
+	@Override
+	public void start() {
+		choose();
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "alpaca-zookeeper-servers");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::recheck, RECHECK_MS, RECHECK_MS, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public String getConnectionString() {
+		return connectionString;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private void recheck() {
+		for (String server : chosen) {
+			if (probe(server) >= 0) {
+				return;
+			}
+		}
+		LOG.warn("None of the zookeeper servers {} can be reached, choosing again", chosen);
+		choose();
+	}
+
+	private void choose() {
+		// blocking connects, kept off the common pool
+		AtomicInteger threads = new AtomicInteger();
+		ExecutorService probeExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(servers.size(), MAX_PROBE_THREADS)), r -> {
+			Thread thread = new Thread(r, "alpaca-zookeeper-probe-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		long best = Long.MAX_VALUE;
+		long[] nanos = new long[servers.size()];
+		try {
+			List<CompletableFuture<Long>> probes = new ArrayList<>();
+			for (String server : servers) {
+				probes.add(CompletableFuture.supplyAsync(() -> probe(server), probeExecutor));
+			}
+			for (int i = 0; i < nanos.length; i++) {
+				nanos[i] = probes.get(i).join();
+				if (nanos[i] >= 0) {
+					best = Math.min(best, nanos[i]);
+				}
+			}
+		} finally {
+			probeExecutor.shutdown();
+		}
+		if (best == Long.MAX_VALUE) {
+			LOG.warn("No zookeeper server of {} answered, using all of them", servers);
+			chosen = servers;
+			connectionString = String.join(",", servers) + chroot;
+			return;
+		}
+		long limit = 2 * best + TimeUnit.MILLISECONDS.toNanos(TOLERANCE_MS);
+		List<String> nearest = new ArrayList<>();
+		for (int i = 0; i < nanos.length; i++) {
+			if (nanos[i] >= 0 && nanos[i] <= limit) {
+				nearest.add(servers.get(i));
+			}
+		}
+		LOG.info("using the nearest zookeeper servers {} of {} (connect times {}us)", nearest, servers, micros(nanos));
+		chosen = nearest;
+		connectionString = String.join(",", nearest) + chroot;
+	}
+
+	/**
+	 * @return the time a tcp connect to {@code server} took in ns, or {@code -1} if it failed
+	 */
+	static long probe(String server) {
+		int colon = server.lastIndexOf(':');
+		String host = colon < 0 ? server : server.substring(0, colon);
+		int port = colon < 0 ? 2181 : Integer.parseInt(server.substring(colon + 1));
+		long startedAt = System.nanoTime();
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(host, port), PROBE_TIMEOUT_MS);
+			return System.nanoTime() - startedAt;
+		} catch (IOException | RuntimeException e) {
+			LOG.debug("could not reach zookeeper server {}: {}", server, e.toString());
+			return -1;
+		}
+	}
+
+	private static String micros(long[] nanos) {
+		long[] micros = new long[nanos.length];
+		for (int i = 0; i < nanos.length; i++) {
+			micros[i] = nanos[i] < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(nanos[i]);
+		}
+		return Arrays.toString(micros);
+	}
+}
@@ -0,0 +1,205 @@
+package org.light.alpaca.config.zookeeper;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, insertion ordered property map in three arrays: the keys, the values and an
+ * open-addressed index into both. Keys and short string values are interned, so the many
+ * property sources of a JVM share the keys and values they have in common; long values, such as
+ * decoded documents, are kept as they are rather than filling the string table.
+ * <p>
+ * Built with a {@link Builder}; changes go through {@link #toBuilder()} and a new store.
+ *
+ * @author Lee
+ * @date 2016/12/05 0005
+ */
+public final class PropertyStore {
+	/**
+	 * string values up to this length are interned
+	 */
+	static final int MAX_INTERNED_LENGTH = 256;
+
+	public static final PropertyStore EMPTY = new Builder(0).build();
+
+	private final String[] keys;
+	private final Object[] values;
+	/**
+	 * the position of each key plus one, 0 for a free slot
+	 */
+	private final int[]    index;
+
+	private PropertyStore(String[] keys, Object[] values, int[] index) {
+		this.keys = keys;
+		this.values = values;
+		this.index = index;
+	}
+
+	public static Builder builder(int expectedSize) {
+		return new Builder(expectedSize);
+	}
+
+	public int size() {
+		return keys.length;
+	}
+
+	public Object get(String key) {
+		int i = find(keys, index, key);
+		return i < 0 ? null : values[i];
+	}
+
+	public boolean containsKey(String key) {
+		return find(keys, index, key) >= 0;
+	}
+
+	/**
+	 * @return a copy of the keys, in insertion order
+	 */
+	public String[] keys() {
+		return keys.clone();
+	}
+
+	public String getKey(int i) {
+		return keys[i];
+	}
+
+	public Object getValue(int i) {
+		return values[i];
+	}
+
+	/**
+	 * @return a builder that starts out with the properties of this store
+	 */
+	public Builder toBuilder() {
+		Builder builder = new Builder(keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			builder.append(keys[i], values[i]);
+		}
+		return builder;
+	}
+
+	private static int find(String[] keys, int[] index, String key) {
+		if (index.length == 0) {
+			return -1;
+		}
+		int mask = index.length - 1;
+		for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+			int i = index[slot] - 1;
+			if (i < 0) {
+				return -1;
+			}
+			if (keys[i].equals(key)) {
+				return i;
+			}
+		}
+	}
+
+	private static int hash(String key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * The index is kept at most half full.
+	 */
+	private static int tableSize(int size) {
+		int tableSize = 2;
+		while (tableSize < size * 2) {
+			tableSize <<= 1;
+		}
+		return tableSize;
+	}
+
+	private static Object intern(Object value) {
+		return value instanceof String && ((String) value).length() <= MAX_INTERNED_LENGTH ? ((String) value).intern() : value;
+	}
+
+	/**
+	 * Not thread-safe. Putting a key again replaces its value in place; a removed key leaves a
+	 * gap that {@link #build()} closes.
+	 */
+	public static final class Builder {
+		private static final Object REMOVED = new Object();
+
+		private String[] keys;
+		private Object[] values;
+		private int[]    index;
+		private int      size;
+		private int      removed;
+
+		private Builder(int expectedSize) {
+			keys = new String[Math.max(expectedSize, 4)];
+			values = new Object[keys.length];
+			index = new int[tableSize(keys.length)];
+		}
+
+		public Builder put(String key, Object value) {
+			int i = find(keys, index, key);
+			if (i >= 0) {
+				if (values[i] == REMOVED) {
+					removed--;
+				}
+				values[i] = intern(value);
+			} else {
+				append(key.intern(), intern(value));
+			}
+			return this;
+		}
+
+		public Builder remove(String key) {
+			int i = find(keys, index, key);
+			if (i >= 0 && values[i] != REMOVED) {
+				values[i] = REMOVED;
+				removed++;
+			}
+			return this;
+		}
+
+		public PropertyStore build() {
+			int count = size - removed;
+			String[] builtKeys = new String[count];
+			Object[] builtValues = new Object[count];
+			int[] builtIndex = new int[count == 0 ? 0 : tableSize(count)];
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				if (values[i] != REMOVED) {
+					builtKeys[n] = keys[i];
+					builtValues[n] = values[i];
+					insert(builtIndex, keys[i], n);
+					n++;
+				}
+			}
+			return new PropertyStore(builtKeys, builtValues, builtIndex);
+		}
+
+		/**
+		 * Adds a key that is known to be absent and already interned.
+		 */
+		private void append(String key, Object value) {
+			if (size == keys.length) {
+				grow();
+			}
+			keys[size] = key;
+			values[size] = value;
+			insert(index, key, size);
+			size++;
+		}
+
+		private void grow() {
+			keys = Arrays.copyOf(keys, keys.length * 2);
+			values = Arrays.copyOf(values, keys.length);
+			index = new int[tableSize(keys.length)];
+			for (int i = 0; i < size; i++) {
+				insert(index, keys[i], i);
+			}
+		}
+
+		private static void insert(int[] index, String key, int i) {
+			int mask = index.length - 1;
+			int slot = hash(key) & mask;
+			while (index[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			index[slot] = i + 1;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A whole context compiled into the data of a single znode, {@code <context>/_bundle}, so that it
+ * can be loaded with one read instead of one per node. See {@link ZookeeperBundlePublisher}.
+ * <p>
+ * The bundle holds the gzipped nodes of the context in the snapshot format, a CRC32 of them, and
+ * the stat of the context root it was compiled at. Like a snapshot it is stale once the root's
+ * mzxid, pzxid or cversion moved on, so whoever edits deeper nodes has to touch the root as well,
+ * or publish the bundle again.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public final class ZookeeperBundle {
+	private static final Logger LOG     = LoggerFactory.getLogger(ZookeeperBundle.class);
+	public static final  String NODE    = "_bundle";
+	private static final int    MAGIC   = 0x414c5042; // ALPB
+	private static final int    VERSION = 1;
+	private static final int    HEADER  = 4 + 4 + 8 + 8 + 4 + 8;
+
+	private ZookeeperBundle() {
+	}
+
+	/**
+	 * @return the path of the bundle of the context rooted at {@code root}
+	 */
+	public static String path(String root) {
+		return root + "/" + NODE;
+	}
+
+	/**
+	 * @return whether {@code child} of {@code path} is the bundle of the context rooted at {@code root}
+	 */
+	static boolean isBundle(String root, String path, String child) {
+		return NODE.equals(child) && path.equals(root);
+	}
+
+	/**
+	 * Compiles {@code tree}, whose root stat has to be known, into a bundle.
+	 */
+	public static byte[] write(ZookeeperTree tree) throws IOException {
+		Stat rootStat = tree.getRootStat();
+		if (rootStat == null) {
+			throw new IllegalArgumentException("No such context: " + tree.getRoot());
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(body))) {
+			ZookeeperSnapshotStore.writeNodes(out, tree);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(body.toByteArray());
+
+		ByteArrayOutputStream bundle = new ByteArrayOutputStream(HEADER + body.size());
+		DataOutputStream out = new DataOutputStream(bundle);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(rootStat.getMzxid());
+		out.writeLong(rootStat.getPzxid());
+		out.writeInt(rootStat.getCversion());
+		out.writeLong(crc.getValue());
+		body.writeTo(out);
+		return bundle.toByteArray();
+	}
+
+	/**
+	 * @param bundle  the data of the bundle node, {@code null} if there is none
+	 * @param current the current stat of the context root
+	 * @return the context read from the bundle, or {@code null} if there is no bundle, or it is stale or damaged
+	 */
+	public static ZookeeperTree read(String root, byte[] bundle, Stat current) {
+		if (bundle == null || bundle.length == 0 || current == null) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.wrap(bundle);
+		if (bundle.length < HEADER || header.getInt() != MAGIC || header.getInt() != VERSION) {
+			LOG.warn("Ignoring bundle of {} with unknown format", root);
+			return null;
+		}
+		Stat compiled = new Stat();
+		compiled.setMzxid(header.getLong());
+		compiled.setPzxid(header.getLong());
+		compiled.setCversion(header.getInt());
+		if (!ZookeeperSnapshotStore.isCurrent(compiled, current)) {
+			LOG.debug("bundle of {} is stale", root);
+			return null;
+		}
+		long checksum = header.getLong();
+		CRC32 crc = new CRC32();
+		crc.update(bundle, HEADER, bundle.length - HEADER);
+		if (crc.getValue() != checksum) {
+			LOG.warn("Ignoring bundle of {} with a wrong checksum", root);
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(bundle, HEADER, bundle.length - HEADER)))) {
+			return ZookeeperSnapshotStore.readNodes(in, root, current);
+		} catch (IOException e) {
+			LOG.warn("Could not read bundle of " + root, e);
+			return null;
+		}
+	}
+}
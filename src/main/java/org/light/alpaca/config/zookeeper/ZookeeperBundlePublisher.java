@@ -0,0 +1,77 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles contexts into their {@link ZookeeperBundle}. Publish again after every change, or
+ * leave the bundle stale and let the clients walk the tree:
+ * <pre>
+ * java -cp ... org.light.alpaca.config.zookeeper.ZookeeperBundlePublisher localhost:2181 /config/applications/default/dev
+ * </pre>
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class ZookeeperBundlePublisher {
+	private static final Logger LOG = LoggerFactory.getLogger(ZookeeperBundlePublisher.class);
+	/**
+	 * the largest znode zookeeper accepts by default (jute.maxbuffer), less room for the request
+	 */
+	static final int MAX_BUNDLE_SIZE = 1024 * 1024 - 1024;
+
+	private final CuratorFramework curator;
+
+	public ZookeeperBundlePublisher(CuratorFramework curator) {
+		this.curator = curator;
+	}
+
+	/**
+	 * Reads the context below {@code context} node by node and stores it as its bundle.
+	 *
+	 * @return the size of the bundle in bytes
+	 */
+	public int publish(String context) throws Exception {
+		String root = context.startsWith("/") ? context : "/" + context;
+		String path = ZookeeperBundle.path(root);
+		if (curator.checkExists().forPath(path) == null) {
+			// creating the bundle changes the root, so it has to exist before the root stat is taken
+			curator.create().forPath(path, new byte[0]);
+		}
+		ZookeeperTree tree = ZookeeperTreeLoader.await(new ZookeeperTreeLoader(curator).load(root));
+		byte[] bundle = ZookeeperBundle.write(tree);
+		if (bundle.length > MAX_BUNDLE_SIZE) {
+			throw new IllegalStateException("Bundle of " + root + " is too large: " + bundle.length + " bytes");
+		}
+		curator.setData().forPath(path, bundle);
+		LOG.info("published bundle of {}: {} nodes, {} bytes", root, tree.getPaths().size(), bundle.length);
+		return bundle.length;
+	}
+
+	/**
+	 * Removes the bundle of {@code context}, if there is one.
+	 */
+	public void remove(String context) throws Exception {
+		String root = context.startsWith("/") ? context : "/" + context;
+		if (curator.checkExists().forPath(ZookeeperBundle.path(root)) != null) {
+			curator.delete().forPath(ZookeeperBundle.path(root));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: ZookeeperBundlePublisher <connect-string> <context>...");
+			System.exit(1);
+		}
+		try (CuratorFramework curator = CuratorFrameworkFactory.newClient(args[0], new ExponentialBackoffRetry(50, 10, 500))) {
+			curator.start();
+			ZookeeperBundlePublisher publisher = new ZookeeperBundlePublisher(curator);
+			for (int i = 1; i < args.length; i++) {
+				publisher.publish(args[i]);
+			}
+		}
+	}
+}
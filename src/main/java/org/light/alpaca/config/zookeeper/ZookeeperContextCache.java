@@ -0,0 +1,211 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Loads each context at most once, however many beans ask for it.
+ *
+ * @author Lee
+ * @date 2016/11/23 0023
+ */
+public class ZookeeperContextCache {
+	private static final Logger LOG = LoggerFactory.getLogger(ZookeeperContextCache.class);
+
+	private final ZookeeperTreeLoader     treeLoader;
+	private final ZookeeperContextWatcher watcher;
+
+	private final ConcurrentMap<String, CompletableFuture<ZookeeperPropertySource>> propertySources     = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LazyZookeeperPropertySource>               lazyPropertySources = new ConcurrentHashMap<>();
+	private volatile List<String>                                                  lazyContexts        = Collections.emptyList();
+	private volatile ConfigDecryptor                                               decryptor;
+
+	/**
+	 * @param watcher watches every loaded context, may be {@code null}
+	 */
+	public ZookeeperContextCache(ZookeeperTreeLoader treeLoader, ZookeeperContextWatcher watcher) {
+		this.treeLoader = treeLoader;
+		this.watcher = watcher;
+	}
+
+	/**
+	 * @param lazyContexts contexts below any of these paths are read key by key, see {@link LazyZookeeperPropertySource}
+	 */
+	public void setLazyContexts(List<String> lazyContexts) {
+		List<String> roots = new ArrayList<>();
+		for (String context : lazyContexts) {
+			String root = context.startsWith("/") ? context : "/" + context;
+			roots.add(root.endsWith("/") ? root.substring(0, root.length() - 1) : root);
+		}
+		this.lazyContexts = roots;
+	}
+
+	/**
+	 * @param decryptor decrypts the {@code {cipher}} values of the contexts loaded from now on
+	 */
+	public void setDecryptor(ConfigDecryptor decryptor) {
+		this.decryptor = decryptor;
+	}
+
+	/**
+	 * @return whether the context is read key by key instead of being loaded by {@link #load}
+	 */
+	public boolean isLazy(ZookeeperContext context) {
+		String root = context.getContext().startsWith("/") ? context.getContext() : "/" + context.getContext();
+		for (String lazyContext : lazyContexts) {
+			if (root.equals(lazyContext) || root.startsWith(lazyContext + "/")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the property source of the context, loading it unless it is already loaded or being loaded
+	 */
+	public CompletableFuture<ZookeeperPropertySource> load(ZookeeperContext context) {
+		String key = context.getContext() + "|" + context.getPrefix();
+		CompletableFuture<ZookeeperPropertySource> propertySource = propertySources.get(key);
+		if (propertySource != null) {
+			return propertySource;
+		}
+		CompletableFuture<ZookeeperPropertySource> loading = new CompletableFuture<>();
+		propertySource = propertySources.putIfAbsent(key, loading);
+		if (propertySource != null) {
+			return propertySource;
+		}
+		treeLoader.load(context.getContext()).thenApplyAsync(tree -> create(context, tree)).whenComplete((created, e) -> {
+			if (e != null) {
+				// let the next caller try again
+				propertySources.remove(key, loading);
+				loading.completeExceptionally(e);
+			} else {
+				loading.complete(created);
+			}
+		});
+		return loading;
+	}
+
+	/**
+	 * Loads the contexts concurrently and adds the ones that are not there yet to the
+	 * {@link AlpacaPropertySource}, highest precedence first. A context added before keeps its
+	 * place, later ones are inserted in front of the next context of the list that is already
+	 * present, so the relative order of the list holds. Empty contexts are left out, unless they
+	 * are watched and may get properties later on.
+	 * <p>
+	 * Lazy contexts are not layers of the {@link AlpacaPropertySource}, which indexes every key of
+	 * its layers. They follow it in the environment, in the same relative order, so they rank below
+	 * every loaded context.
+	 *
+	 * @return whether any property source was added
+	 */
+	public boolean addPropertySources(MutablePropertySources propertySources, List<ZookeeperContext> contexts) {
+		List<CompletableFuture<ZookeeperPropertySource>> loads = new ArrayList<>();
+		List<LazyZookeeperPropertySource> lazy = new ArrayList<>();
+		for (ZookeeperContext context : contexts) {
+			if (isLazy(context)) {
+				lazy.add(lazyPropertySources.computeIfAbsent(context.getContext() + "|" + context.getPrefix(),
+						key -> new LazyZookeeperPropertySource(context.getContext(), context.getPrefix(), treeLoader, decryptor)));
+			} else {
+				loads.add(load(context));
+			}
+		}
+		List<String> names = new ArrayList<>();
+		for (CompletableFuture<ZookeeperPropertySource> load : loads) {
+			names.add(ZookeeperTreeLoader.await(load).getName());
+		}
+
+		AlpacaPropertySource alpaca = AlpacaPropertySource.get(propertySources);
+		boolean added = false;
+		for (int i = 0; i < loads.size(); i++) {
+			ZookeeperPropertySource propertySource = loads.get(i).join();
+			if (alpaca.contains(propertySource.getName())) {
+				continue;
+			}
+			if (watcher == null && propertySource.getPropertyNames().length == 0) {
+				continue;
+			}
+			if (LOG.isDebugEnabled()) {
+				for (String s : propertySource.getPropertyNames()) {
+					LOG.debug("load property {}: {}", s, propertySource.getStoredValue(s));
+				}
+			}
+			String next = null;
+			for (int j = i + 1; j < names.size() && next == null; j++) {
+				if (alpaca.contains(names.get(j))) {
+					next = names.get(j);
+				}
+			}
+			if (next != null) {
+				alpaca.addBefore(next, propertySource);
+			} else {
+				alpaca.addLast(propertySource);
+			}
+			added = true;
+		}
+		return addLazyPropertySources(propertySources, lazy) || added;
+	}
+
+	private boolean addLazyPropertySources(MutablePropertySources propertySources, List<LazyZookeeperPropertySource> lazy) {
+		if (lazy.isEmpty()) {
+			return false;
+		}
+		boolean added = false;
+		synchronized (propertySources) {
+			for (int i = 0; i < lazy.size(); i++) {
+				LazyZookeeperPropertySource propertySource = lazy.get(i);
+				if (propertySources.contains(propertySource.getName())) {
+					continue;
+				}
+				String next = null;
+				for (int j = i + 1; j < lazy.size() && next == null; j++) {
+					if (propertySources.contains(lazy.get(j).getName())) {
+						next = lazy.get(j).getName();
+					}
+				}
+				if (next != null) {
+					propertySources.addBefore(next, propertySource);
+				} else {
+					propertySources.addAfter(lastLazyPropertySource(propertySources), propertySource);
+				}
+				LOG.debug("added lazy context {}", propertySource.getName());
+				added = true;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * @return the name of the last lazy context following the alpaca property source, or of the alpaca property source
+	 */
+	private static String lastLazyPropertySource(MutablePropertySources propertySources) {
+		String last = null;
+		for (PropertySource<?> propertySource : propertySources) {
+			if (propertySource.getName().equals(AlpacaPropertySource.NAME)) {
+				last = propertySource.getName();
+			} else if (last != null && propertySource instanceof LazyZookeeperPropertySource) {
+				last = propertySource.getName();
+			} else if (last != null) {
+				break;
+			}
+		}
+		return last;
+	}
+
+	private ZookeeperPropertySource create(ZookeeperContext context, ZookeeperTree tree) {
+		ZookeeperPropertySource propertySource = new ZookeeperPropertySource(context.getContext(), context.getPrefix(), treeLoader.getCurator(), tree, decryptor);
+		if (watcher != null) {
+			watcher.watch(propertySource);
+		}
+		return propertySource;
+	}
+}
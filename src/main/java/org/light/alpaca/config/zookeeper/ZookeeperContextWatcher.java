@@ -0,0 +1,267 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.framework.recipes.cache.TreeCacheListener;
+import org.apache.curator.utils.ZKPaths;
+import org.light.alpaca.config.metrics.ConfigMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps {@link ZookeeperPropertySource}s up to date with a {@link TreeCache} per context.
+ * <p>
+ * Node events only mark the affected znodes; changes that arrive within {@code batchDelayMs}
+ * are applied together on the watcher thread, re-deriving just the marked keys. The whole
+ * context is re-derived from the cache once it is initialized and after every reconnect,
+ * which covers changes missed while the session was gone.
+ *
+ * @author Lee
+ * @date 2016/11/09 0009
+ */
+public class ZookeeperContextWatcher implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(ZookeeperContextWatcher.class);
+
+	public interface Listener {
+		/**
+		 * Called on the watcher thread after a batch of changes has been applied.
+		 */
+		void onChange(Set<String> keys);
+	}
+
+	private final CuratorFramework         curator;
+	private final long                     batchDelayMs;
+	private final ScheduledExecutorService executor;
+	private final List<Watch>              watches   = new CopyOnWriteArrayList<>();
+	private final List<Listener>           listeners = new CopyOnWriteArrayList<>();
+	private final AtomicBoolean            scheduled = new AtomicBoolean();
+	private volatile ConfigMetrics         metrics;
+
+	public ZookeeperContextWatcher(CuratorFramework curator, long batchDelayMs) {
+		this.curator = curator;
+		this.batchDelayMs = batchDelayMs;
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "alpaca-config-watcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Records every context brought up to date as confirmed.
+	 */
+	public void setMetrics(ConfigMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void watch(ZookeeperPropertySource propertySource) {
+		Watch watch = new Watch(propertySource);
+		watches.add(watch);
+		try {
+			watch.cache.start();
+		} catch (Exception e) {
+			watches.remove(watch);
+			throw new IllegalStateException("Could not watch " + propertySource.getContext(), e);
+		}
+		LOG.debug("watching {}", propertySource.getContext());
+	}
+
+	@Override
+	public void close() {
+		for (Watch watch : watches) {
+			watch.cache.close();
+		}
+		watches.clear();
+		executor.shutdownNow();
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.schedule(this::flush, batchDelayMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void flush() {
+		scheduled.set(false);
+		Set<String> changed = new LinkedHashSet<>();
+		for (Watch watch : watches) {
+			try {
+				changed.addAll(watch.apply());
+			} catch (RuntimeException e) {
+				LOG.warn("Could not apply changes of " + watch.propertySource.getContext(), e);
+			}
+		}
+		if (changed.isEmpty()) {
+			return;
+		}
+		LOG.info("zookeeper configuration changed: {}", changed);
+		Set<String> keys = Collections.unmodifiableSet(changed);
+		for (Listener listener : listeners) {
+			try {
+				listener.onChange(keys);
+			} catch (RuntimeException e) {
+				LOG.warn("Configuration change listener failed", e);
+			}
+		}
+	}
+
+	private class Watch implements TreeCacheListener {
+		final ZookeeperPropertySource propertySource;
+		final TreeCache               cache;
+		final Set<String>             dirty = ConcurrentHashMap.newKeySet();
+		volatile boolean initialized;
+		volatile boolean resync;
+
+		Watch(ZookeeperPropertySource propertySource) {
+			this.propertySource = propertySource;
+			this.cache = TreeCache.newBuilder(curator, propertySource.getContext()).setCacheData(true).build();
+			this.cache.getListenable().addListener(this);
+		}
+
+		@Override
+		public void childEvent(CuratorFramework client, TreeCacheEvent event) {
+			switch (event.getType()) {
+				case NODE_ADDED:
+				case NODE_REMOVED:
+					if (initialized) {
+						String path = event.getData().getPath();
+						mark(path);
+						// the parent may have become, or stopped being, an empty leaf
+						String parent = ZKPaths.getPathAndNode(path).getPath();
+						if (!parent.equals(propertySource.getContext())) {
+							mark(parent);
+						}
+					}
+					break;
+				case NODE_UPDATED:
+					if (initialized) {
+						mark(event.getData().getPath());
+					}
+					break;
+				case INITIALIZED:
+					initialized = true;
+					resync = true;
+					schedule();
+					break;
+				case CONNECTION_RECONNECTED:
+					resync = true;
+					schedule();
+					break;
+				default:
+			}
+		}
+
+		private void mark(String path) {
+			if (path.equals(ZookeeperBundle.path(propertySource.getContext()))) {
+				return;
+			}
+			if (path.equals(propertySource.getContext()) || path.startsWith(propertySource.getContext() + "/")) {
+				dirty.add(path);
+				schedule();
+			}
+		}
+
+		Set<String> apply() {
+			if (resync) {
+				resync = false;
+				dirty.clear();
+				Set<String> changed = propertySource.reload(snapshot());
+				confirmed();
+				return changed;
+			}
+			List<String> paths = new ArrayList<>();
+			for (Iterator<String> it = dirty.iterator(); it.hasNext(); ) {
+				paths.add(it.next());
+				it.remove();
+			}
+			if (paths.isEmpty()) {
+				return Collections.emptySet();
+			}
+			if (paths.contains(propertySource.getContext()) || touchesChunks(paths)) {
+				Set<String> changed = propertySource.reload(snapshot());
+				confirmed();
+				return changed;
+			}
+			Map<String, byte[]> data = new HashMap<>();
+			Map<String, List<String>> children = new HashMap<>();
+			for (String path : paths) {
+				copy(path, data, children);
+			}
+			Set<String> changed = propertySource.update(new ZookeeperTree(propertySource.getContext(), null, data, children), paths);
+			confirmed();
+			return changed;
+		}
+
+		/**
+		 * A chunked value is read from several nodes, which a partial update does not copy.
+		 */
+		private boolean touchesChunks(List<String> paths) {
+			for (String path : paths) {
+				ChildData node = cache.getCurrentData(path);
+				if (ZookeeperValues.isChunk(ZKPaths.getNodeFromPath(path))
+				    || node != null && ZookeeperValues.isChunked(node.getData())) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void confirmed() {
+			ConfigMetrics metrics = ZookeeperContextWatcher.this.metrics;
+			if (metrics != null) {
+				metrics.contextConfirmed(propertySource.getContext());
+			}
+		}
+
+		private ZookeeperTree snapshot() {
+			Map<String, byte[]> data = new HashMap<>();
+			Map<String, List<String>> children = new HashMap<>();
+			List<String> queue = new ArrayList<>();
+			queue.add(propertySource.getContext());
+			while (!queue.isEmpty()) {
+				String path = queue.remove(queue.size() - 1);
+				List<String> names = copy(path, data, children);
+				if (names != null) {
+					for (String name : names) {
+						queue.add(ZKPaths.makePath(path, name));
+					}
+				}
+			}
+			return new ZookeeperTree(propertySource.getContext(), null, data, children);
+		}
+
+		private List<String> copy(String path, Map<String, byte[]> data, Map<String, List<String>> children) {
+			ChildData node = cache.getCurrentData(path);
+			if (node == null) {
+				return null;
+			}
+			data.put(path, node.getData() == null ? new byte[0] : node.getData());
+			Map<String, ChildData> current = cache.getCurrentChildren(path);
+			List<String> names = current == null ? Collections.<String>emptyList() : new ArrayList<>(current.keySet());
+			children.put(path, names);
+			return names;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Serves contexts from yml files instead of zookeeper: the context {@code /config/applications/app/dev}
+ * is read from {@code <location>/zookeeper/config/applications/app/dev.yml}, and a context without a
+ * file is empty. Each key of the yml becomes a node below the context root, so the property sources
+ * built on top flatten, prefix and order the keys the same way as for a live context.
+ * <p>
+ * The curator client handed to the property sources is never started.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class ZookeeperFixtureLoader extends ZookeeperTreeLoader {
+	private static final Logger LOG   = LoggerFactory.getLogger(ZookeeperFixtureLoader.class);
+	private static final byte[] EMPTY = new byte[0];
+
+	private final ResourceLoader resourceLoader;
+	private final String         location;
+
+	/**
+	 * @param location the fixture, {@code null} to serve every context empty
+	 */
+	public ZookeeperFixtureLoader(ResourceLoader resourceLoader, String location) {
+		super(unstartedCurator());
+		this.resourceLoader = resourceLoader;
+		this.location = location == null || !location.endsWith("/") ? location : location.substring(0, location.length() - 1);
+	}
+
+	private static CuratorFramework unstartedCurator() {
+		return CuratorFrameworkFactory.newClient("localhost:2181", new RetryOneTime(0));
+	}
+
+	@Override
+	public CompletableFuture<ZookeeperTree> load(String context) {
+		String root = context.startsWith("/") ? context : "/" + context;
+		try {
+			return CompletableFuture.completedFuture(read(root));
+		} catch (IOException e) {
+			CompletableFuture<ZookeeperTree> failed = new CompletableFuture<>();
+			failed.completeExceptionally(new IllegalStateException("Could not read the fixture of " + root, e));
+			return failed;
+		}
+	}
+
+	private ZookeeperTree read(String root) throws IOException {
+		Resource resource = location == null ? null : resourceLoader.getResource(location + "/zookeeper" + root + ".yml");
+		Map<String, byte[]> data = new HashMap<>();
+		Map<String, List<String>> children = new HashMap<>();
+		if (resource == null || !resource.exists()) {
+			LOG.debug("no fixture for {}", root);
+			return new ZookeeperTree(root, null, data, children);
+		}
+		PropertySource<?> properties = new YamlPropertySourceLoader().load(root, resource, null);
+		List<String> names = new ArrayList<>();
+		if (properties instanceof EnumerablePropertySource) {
+			Charset utf8 = Charset.forName("UTF-8");
+			for (String name : ((EnumerablePropertySource<?>) properties).getPropertyNames()) {
+				Object value = properties.getProperty(name);
+				names.add(name);
+				data.put(root + "/" + name, value == null ? EMPTY : value.toString().getBytes(utf8));
+				children.put(root + "/" + name, Collections.<String>emptyList());
+			}
+		}
+		data.put(root, EMPTY);
+		children.put(root, names);
+		LOG.trace("loaded {} keys of {} from {}", names.size(), root, resource);
+		return new ZookeeperTree(root, new Stat(), data, children);
+	}
+}
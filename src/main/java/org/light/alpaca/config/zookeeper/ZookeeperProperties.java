@@ -19,6 +19,8 @@ package org.light.alpaca.config.zookeeper;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -30,12 +32,38 @@ import java.util.concurrent.TimeUnit;
 @ConfigurationProperties("zhao.alpaca.zookeeper")
 public class ZookeeperProperties {
 
-    /**
+	/**
 	 * Connection string to the Zookeeper cluster
 	 */
 	@NotNull
 	private String connectString = "localhost:2181";
 
+	/**
+	 * Connection string used for reading the configuration instead of {@link #connectString},
+	 * e.g. the observers of the local zone
+	 */
+	private String readConnectString;
+
+	/**
+	 * Keep reading from a server that lost contact with the quorum, during a network partition
+	 */
+	private boolean canBeReadOnly = false;
+
+	/**
+	 * Connect to the servers of the connect string that answer fastest only
+	 */
+	private boolean preferNearestServers = false;
+
+	/**
+	 * Zookeeper session timeout in ms
+	 */
+	private Integer sessionTimeoutMs = 60000;
+
+	/**
+	 * Zookeeper connection timeout in ms
+	 */
+	private Integer connectionTimeoutMs = 15000;
+
 	/**
 	 * Is Zookeeper enabled
 	 */
@@ -66,10 +94,123 @@ public class ZookeeperProperties {
 	 */
 	private TimeUnit blockUntilConnectedUnit = TimeUnit.SECONDS;
 
+	/**
+	 * Max number of zookeeper reads in flight while loading configuration trees
+	 */
+	private Integer maxInFlightRequests = ZookeeperTreeLoader.DEFAULT_MAX_IN_FLIGHT;
+
+	/**
+	 * Watch the loaded contexts and apply changes while running
+	 */
+	private boolean watch = false;
+
+	/**
+	 * Time in ms to collect changes before applying them together
+	 */
+	private Integer watchBatchDelayMs = 200;
+
+	/**
+	 * Keep local snapshots of the loaded contexts, reused while a context root is unchanged
+	 * and while Zookeeper cannot be reached
+	 */
+	private boolean snapshot = false;
+
+	/**
+	 * Directory of the local snapshots
+	 */
+	private String snapshotDir = System.getProperty("java.io.tmpdir") + "/alpaca-snapshot";
+
+	/**
+	 * Load contexts from their compiled bundle node in a single read where the bundle is current,
+	 * walking the tree otherwise
+	 */
+	private boolean bundle = false;
+
+	/**
+	 * Contexts below these paths are read key by key on first use instead of as a whole,
+	 * for very large trees of which only a few keys are used
+	 */
+	private List<String> lazyContexts = new ArrayList<>();
+
+	/**
+	 * Max number of zookeeper reads in flight across all contexts of the JVM, 0 for no cap beyond
+	 * the one of each context
+	 */
+	private Integer jvmMaxInFlightRequests = 0;
+
+	/**
+	 * Halve the reads in flight whenever a read takes longer than this many ms, and grow them
+	 * back while reads are faster, 0 to keep them fixed
+	 */
+	private Integer targetReadLatencyMs = 0;
+
+	/**
+	 * Delay the first tree walk by a random time below this many ms, to spread the reads of
+	 * instances started together
+	 */
+	private Integer startupJitterMs = 0;
+
+	/**
+	 * Once the root of a snapshot changed, re-read only the nodes whose stat changed
+	 */
+	private boolean revalidateNodes = false;
+
+	/**
+	 * Keystore file holding the AES keys of {cipher} values
+	 */
+	private String keyStore;
+
+	/**
+	 * Type of the keystore, JCEKS or PKCS12
+	 */
+	private String keyStoreType = "JCEKS";
+
+	/**
+	 * Password of the keystore and of its keys
+	 */
+	private String keyStorePassword;
+
+	/**
+	 * Key of {cipher} values that do not name one
+	 */
+	private String keyAlias = "alpaca";
+
+	/**
+	 * Class of a CipherKeyProvider to use instead of the keystore
+	 */
+	private String keyProvider;
+
 	public String getConnectString() {
 		return this.connectString;
 	}
 
+	public String getReadConnectString() {
+		return this.readConnectString;
+	}
+
+	/**
+	 * @return the connection string to read the configuration from
+	 */
+	public String getEffectiveReadConnectString() {
+		return this.readConnectString != null && !this.readConnectString.isEmpty() ? this.readConnectString : this.connectString;
+	}
+
+	public boolean isCanBeReadOnly() {
+		return this.canBeReadOnly;
+	}
+
+	public boolean isPreferNearestServers() {
+		return this.preferNearestServers;
+	}
+
+	public Integer getSessionTimeoutMs() {
+		return this.sessionTimeoutMs;
+	}
+
+	public Integer getConnectionTimeoutMs() {
+		return this.connectionTimeoutMs;
+	}
+
 	public boolean isEnabled() {
 		return this.enabled;
 	}
@@ -94,10 +235,94 @@ public class ZookeeperProperties {
 		return this.blockUntilConnectedUnit;
 	}
 
+	public Integer getMaxInFlightRequests() {
+		return this.maxInFlightRequests;
+	}
+
+	public boolean isWatch() {
+		return this.watch;
+	}
+
+	public Integer getWatchBatchDelayMs() {
+		return this.watchBatchDelayMs;
+	}
+
+	public boolean isSnapshot() {
+		return this.snapshot;
+	}
+
+	public String getSnapshotDir() {
+		return this.snapshotDir;
+	}
+
+	public boolean isBundle() {
+		return this.bundle;
+	}
+
+	public List<String> getLazyContexts() {
+		return this.lazyContexts;
+	}
+
+	public Integer getJvmMaxInFlightRequests() {
+		return this.jvmMaxInFlightRequests;
+	}
+
+	public Integer getTargetReadLatencyMs() {
+		return this.targetReadLatencyMs;
+	}
+
+	public Integer getStartupJitterMs() {
+		return this.startupJitterMs;
+	}
+
+	public boolean isRevalidateNodes() {
+		return this.revalidateNodes;
+	}
+
+	public String getKeyStore() {
+		return this.keyStore;
+	}
+
+	public String getKeyStoreType() {
+		return this.keyStoreType;
+	}
+
+	public String getKeyStorePassword() {
+		return this.keyStorePassword;
+	}
+
+	public String getKeyAlias() {
+		return this.keyAlias;
+	}
+
+	public String getKeyProvider() {
+		return this.keyProvider;
+	}
+
 	public void setConnectString(String connectString) {
 		this.connectString = connectString;
 	}
 
+	public void setReadConnectString(String readConnectString) {
+		this.readConnectString = readConnectString;
+	}
+
+	public void setCanBeReadOnly(boolean canBeReadOnly) {
+		this.canBeReadOnly = canBeReadOnly;
+	}
+
+	public void setPreferNearestServers(boolean preferNearestServers) {
+		this.preferNearestServers = preferNearestServers;
+	}
+
+	public void setSessionTimeoutMs(Integer sessionTimeoutMs) {
+		this.sessionTimeoutMs = sessionTimeoutMs;
+	}
+
+	public void setConnectionTimeoutMs(Integer connectionTimeoutMs) {
+		this.connectionTimeoutMs = connectionTimeoutMs;
+	}
+
 	public void setEnabled(boolean enabled) {
 		this.enabled = enabled;
 	}
@@ -121,4 +346,68 @@ public class ZookeeperProperties {
 	public void setBlockUntilConnectedUnit(TimeUnit blockUntilConnectedUnit) {
 		this.blockUntilConnectedUnit = blockUntilConnectedUnit;
 	}
+
+	public void setMaxInFlightRequests(Integer maxInFlightRequests) {
+		this.maxInFlightRequests = maxInFlightRequests;
+	}
+
+	public void setWatch(boolean watch) {
+		this.watch = watch;
+	}
+
+	public void setWatchBatchDelayMs(Integer watchBatchDelayMs) {
+		this.watchBatchDelayMs = watchBatchDelayMs;
+	}
+
+	public void setSnapshot(boolean snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	public void setSnapshotDir(String snapshotDir) {
+		this.snapshotDir = snapshotDir;
+	}
+
+	public void setBundle(boolean bundle) {
+		this.bundle = bundle;
+	}
+
+	public void setLazyContexts(List<String> lazyContexts) {
+		this.lazyContexts = lazyContexts;
+	}
+
+	public void setJvmMaxInFlightRequests(Integer jvmMaxInFlightRequests) {
+		this.jvmMaxInFlightRequests = jvmMaxInFlightRequests;
+	}
+
+	public void setTargetReadLatencyMs(Integer targetReadLatencyMs) {
+		this.targetReadLatencyMs = targetReadLatencyMs;
+	}
+
+	public void setStartupJitterMs(Integer startupJitterMs) {
+		this.startupJitterMs = startupJitterMs;
+	}
+
+	public void setRevalidateNodes(boolean revalidateNodes) {
+		this.revalidateNodes = revalidateNodes;
+	}
+
+	public void setKeyStore(String keyStore) {
+		this.keyStore = keyStore;
+	}
+
+	public void setKeyStoreType(String keyStoreType) {
+		this.keyStoreType = keyStoreType;
+	}
+
+	public void setKeyStorePassword(String keyStorePassword) {
+		this.keyStorePassword = keyStorePassword;
+	}
+
+	public void setKeyAlias(String keyAlias) {
+		this.keyAlias = keyAlias;
+	}
+
+	public void setKeyProvider(String keyProvider) {
+		this.keyProvider = keyProvider;
+	}
 }
@@ -1,29 +1,36 @@
 package org.light.alpaca.config.zookeeper;
 
 import org.apache.curator.framework.CuratorFramework;
-import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.env.YamlPropertySourceLoader;
 import org.springframework.core.env.EnumerablePropertySource;
 import org.springframework.core.env.MapPropertySource;
 import org.springframework.core.io.ByteArrayResource;
-import org.springframework.util.ReflectionUtils;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.ObjectUtils;
 import org.springframework.util.StringUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 public class ZookeeperPropertySource extends EnumerablePropertySource<CuratorFramework> {
-    public static final Logger              log        = LoggerFactory.getLogger(ZookeeperPropertySource.class);
-    private             Map<String, Object> properties = new LinkedHashMap<>();
+    public static final Logger        log = LoggerFactory.getLogger(ZookeeperPropertySource.class);
+    private volatile    PropertyStore properties;
 
     private String context;
     private String prefix;
+    private final ConfigDecryptor decryptor;
 
     protected String sanitizeKey(String path) {
         return path.replace(this.context + "/", "").replace('/', '.');
@@ -33,103 +40,250 @@ public class ZookeeperPropertySource extends EnumerablePropertySource<CuratorFra
         return this.context;
     }
 
-    private MapPropertySource propertySource;
+    /**
+     * the properties of the root yaml, without the prefix
+     */
+    private PropertyStore rootProperties = PropertyStore.EMPTY;
 
     public ZookeeperPropertySource(String context, String prefix, CuratorFramework source) {
+        this(context, prefix, source, ZookeeperTreeLoader.await(new ZookeeperTreeLoader(source).load(context)));
+    }
+
+    /**
+     * Builds the property source from a tree that has already been read, see {@link ZookeeperTreeLoader}.
+     */
+    public ZookeeperPropertySource(String context, String prefix, CuratorFramework source, ZookeeperTree tree) {
+        this(context, prefix, source, tree, null);
+    }
+
+    /**
+     * @param decryptor decrypts the {@code {cipher}} values, see {@link ConfigDecryptor}; may be {@code null}
+     *                  to keep them as they are
+     */
+    public ZookeeperPropertySource(String context, String prefix, CuratorFramework source, ZookeeperTree tree, ConfigDecryptor decryptor) {
         super(context, source);
         this.context = context;
         this.prefix = prefix;
+        this.decryptor = decryptor;
         if (!this.context.startsWith("/")) {
             this.context = "/" + this.context;
         }
+        this.properties = load(tree);
+    }
 
-        byte[] value = getPropertyBytes(this.context);
+    private PropertyStore load(ZookeeperTree tree) {
+        PropertyStore.Builder properties = PropertyStore.builder(tree.getPaths().size());
+        byte[] value = tree.getData(this.context);
+        PropertyStore previousRoot = rootProperties;
+        rootProperties = PropertyStore.EMPTY;
         if (value != null && value.length > 0) {
             YamlPropertySourceLoader loader = new YamlPropertySourceLoader();
             try {
-                propertySource = (MapPropertySource) loader.load(context, new ByteArrayResource(value), null);
-                for (Map.Entry<String, Object> entry : propertySource.getSource().entrySet()) {
-                    this.properties.put(StringUtils.hasText(this.prefix) ? this.prefix + "." + entry.getKey() : entry.getKey(), entry.getValue());
+                Resource resource = new ByteArrayResource(value);
+                if (ZookeeperValues.isEncoded(value)) {
+                    InputStream in = ZookeeperValues.open(tree, this.context, value);
+                    if (in == null) {
+                        // the chunks are not all there yet, the next reload brings them
+                        rootProperties = previousRoot;
+                        for (int i = 0; i < previousRoot.size(); i++) {
+                            properties.put(prefixed(previousRoot.getKey(i)), previousRoot.getValue(i));
+                        }
+                    }
+                    resource = in == null ? null : new InputStreamResource(in, this.context);
+                }
+                MapPropertySource propertySource = resource == null ? null : (MapPropertySource) loader.load(getName(), resource, null);
+                if (propertySource != null) {
+                    PropertyStore.Builder root = PropertyStore.builder(propertySource.getSource().size());
+                    for (Map.Entry<String, Object> entry : propertySource.getSource().entrySet()) {
+                        root.put(entry.getKey(), entry.getValue());
+                        properties.put(prefixed(entry.getKey()), entry.getValue());
+                    }
+                    rootProperties = root.build();
                 }
             } catch (IOException e) {
             }
         }
-        findProperties(this.getContext(), null);
+        StringBuilder key = new StringBuilder(64);
+        if (StringUtils.hasText(this.prefix)) {
+            key.append(this.prefix).append('.');
+        }
+        findProperties(properties, tree, this.getContext(), null, key);
+        return decrypt(properties.build(), true);
     }
 
-    @Override
-    public Object getProperty(String name) {
-        return this.properties.get(name);
+    /**
+     * Replaces the {@code {cipher}} values with their secrets, all in one batch. Values decrypted
+     * before are secrets already and left alone.
+     *
+     * @param complete whether {@code properties} were read as a whole, so any other plain text the
+     *                 decryptor keeps for the context belongs to a removed key
+     */
+    private PropertyStore decrypt(PropertyStore properties, boolean complete) {
+        if (this.decryptor == null) {
+            return properties;
+        }
+        Map<String, String> encrypted = new LinkedHashMap<>();
+        for (int i = 0; i < properties.size(); i++) {
+            if (ConfigDecryptor.isEncrypted(properties.getValue(i))) {
+                encrypted.put(properties.getKey(i), (String) properties.getValue(i));
+            }
+        }
+        if (complete) {
+            this.decryptor.retain(this.context, encrypted.keySet());
+        }
+        if (encrypted.isEmpty()) {
+            return properties;
+        }
+        Map<String, ConfigDecryptor.Secret> secrets = this.decryptor.decryptAll(this.context, encrypted);
+        PropertyStore.Builder decrypted = properties.toBuilder();
+        for (String key : encrypted.keySet()) {
+            ConfigDecryptor.Secret secret = secrets.get(key);
+            if (secret != null) {
+                decrypted.put(key, secret);
+            } else {
+                decrypted.remove(key);
+            }
+        }
+        return decrypted.build();
     }
 
-    private byte[] getPropertyBytes(String fullPath) {
-        try {
-            byte[] bytes = null;
-            try {
-                bytes = this.getSource().getData().forPath(fullPath);
-            } catch (KeeperException e) {
-                if (e.code() != KeeperException.Code.NONODE) { // not found
-                    throw e;
-                }
+    /**
+     * Re-reads the whole context from {@code tree}, which holds every node of the context.
+     *
+     * @return the keys that were added, changed or removed
+     */
+    Set<String> reload(ZookeeperTree tree) {
+        PropertyStore previous = this.properties;
+        PropertyStore updated = load(tree);
+        Set<String> keys = new LinkedHashSet<>(Arrays.asList(previous.keys()));
+        keys.addAll(Arrays.asList(updated.keys()));
+        this.properties = updated;
+        return changedKeys(previous, updated, keys);
+    }
+
+    /**
+     * Re-derives the keys of the given nodes only. {@code tree} has to hold the data and children of
+     * each of {@code paths}; the context root itself always needs a {@link #reload}.
+     *
+     * @return the keys that were added, changed or removed
+     */
+    Set<String> update(ZookeeperTree tree, Collection<String> paths) {
+        PropertyStore previous = this.properties;
+        PropertyStore.Builder updated = previous.toBuilder();
+        Set<String> keys = new LinkedHashSet<>();
+        List<String> plain = new ArrayList<>();
+        for (String path : paths) {
+            String rootKey = sanitizeKey(path);
+            String key = prefixed(rootKey);
+            byte[] bytes = tree.getData(path);
+            Object value = bytes == null ? null : valueOf(tree, path, bytes, tree.getChildren(path));
+            if (value == null && rootProperties.containsKey(rootKey)) {
+                // the root yaml still defines the key
+                value = rootProperties.get(rootKey);
+            }
+            if (value != null) {
+                updated.put(key, value);
+            } else {
+                updated.remove(key);
+            }
+            keys.add(key);
+            if (!ConfigDecryptor.isEncrypted(value)) {
+                plain.add(key);
+            }
+        }
+        if (this.decryptor != null) {
+            this.decryptor.forget(this.context, plain);
+        }
+        this.properties = decrypt(updated.build(), false);
+        return changedKeys(previous, this.properties, keys);
+    }
+
+    private Set<String> changedKeys(PropertyStore previous, PropertyStore updated, Set<String> keys) {
+        Set<String> changed = new LinkedHashSet<>();
+        for (String key : keys) {
+            if (!ObjectUtils.nullSafeEquals(previous.get(key), updated.get(key))) {
+                changed.add(key);
             }
-            return bytes;
-        } catch (Exception exception) {
-            ReflectionUtils.rethrowRuntimeException(exception);
         }
-        return null;
+        return changed;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return ConfigDecryptor.reveal(this.properties.get(name));
+    }
+
+    /**
+     * @return the value as stored, a decrypted value still wrapped in its secret
+     */
+    Object getStoredValue(String name) {
+        return this.properties.get(name);
     }
 
     @Override
     public String[] getPropertyNames() {
-        Set<String> strings = this.properties.keySet();
-        return strings.toArray(new String[strings.size()]);
+        return this.properties.keys();
     }
 
-    private void findProperties(String path, List<String> children) {
-        try {
-            log.trace("entering findProperties for path: " + path);
-            if (children == null) {
-                children = getChildren(path);
+    /**
+     * @param key the key of {@code path} followed by a dot, or just the prefix for the context root; shared along the
+     *            way down and restored on return
+     */
+    private void findProperties(PropertyStore.Builder properties, ZookeeperTree tree, String path, List<String> children, StringBuilder key) {
+        log.trace("entering findProperties for path: " + path);
+        if (children == null) {
+            children = tree.getChildren(path);
+        }
+        if (children == null || children.isEmpty()) {
+            return;
+        }
+        int length = key.length();
+        for (String child : children) {
+            if (ZookeeperBundle.isBundle(this.context, path, child) || ZookeeperValues.isChunk(child)) {
+                continue;
             }
-            if (children == null || children.isEmpty()) {
-                return;
+            String childPath = path + "/" + child;
+            List<String> childPathChildren = tree.getChildren(childPath);
+            key.append(child);
+
+            byte[] data = tree.getData(childPath);
+            Object value = valueOf(tree, childPath, data, childPathChildren);
+            if (value == null && ZookeeperValues.isChunked(data) && this.properties != null) {
+                // the chunks are not all there yet, the next reload brings them
+                value = this.properties.get(key.toString());
+            }
+            if (value != null) {
+                properties.put(key.toString(), value);
             }
-            for (String child : children) {
-                String childPath = path + "/" + child;
-                List<String> childPathChildren = getChildren(childPath);
-
-                byte[] bytes = getPropertyBytes(childPath);
-                if (bytes == null || bytes.length == 0) {
-                    if (childPathChildren == null || childPathChildren.isEmpty()) {
-                        registerKeyValue(childPath, "");
-                    }
-                } else {
-                    registerKeyValue(childPath, new String(bytes, Charset.forName("UTF-8")));
-                }
 
-                // Check children even if we have found a value for the current znode
-                findProperties(childPath, childPathChildren);
+            // Check children even if we have found a value for the current znode
+            if (childPathChildren != null && !childPathChildren.isEmpty()) {
+                key.append('.');
+                findProperties(properties, tree, childPath, childPathChildren, key);
             }
-            log.trace("leaving findProperties for path: " + path);
-        } catch (Exception exception) {
-            ReflectionUtils.rethrowRuntimeException(exception);
+            key.setLength(length);
         }
+        log.trace("leaving findProperties for path: " + path);
     }
 
-    private void registerKeyValue(String path, String value) {
-        String key = sanitizeKey(path);
-        this.properties.put(StringUtils.hasText(this.prefix) ? this.prefix + "." + key : key, value);
+    /**
+     * A znode yields a key if it has data, or if it is an empty leaf. Compressed and chunked data is
+     * decoded, see {@link ZookeeperValues}; a chunked value read before all of its chunks keeps the
+     * value it had, and has none at first.
+     *
+     * @return the value of the znode, or {@code null} if it does not yield a key
+     */
+    static String valueOf(ZookeeperTree tree, String path, byte[] bytes, List<String> children) {
+        if (bytes == null || bytes.length == 0) {
+            return children == null || children.isEmpty() ? "" : null;
+        }
+        if (ZookeeperValues.isEncoded(bytes)) {
+            return ZookeeperValues.text(tree, path, bytes);
+        }
+        return new String(bytes, Charset.forName("UTF-8"));
     }
 
-    private List<String> getChildren(String path) throws Exception {
-        List<String> children = null;
-        try {
-            children = this.getSource().getChildren().forPath(path);
-        } catch (KeeperException e) {
-            if (e.code() != KeeperException.Code.NONODE) { // not found
-                throw e;
-            }
-        }
-        return children;
+    private String prefixed(String key) {
+        return StringUtils.hasText(this.prefix) ? this.prefix + "." + key : key;
     }
 }
@@ -0,0 +1,149 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the zookeeper reads in flight, for one {@link ZookeeperTreeLoader} or, with
+ * {@link #shared}, for every loader of the JVM.
+ * <p>
+ * With a target latency the cap adapts to the ensemble: it halves when a read takes longer than
+ * the target, at most once per target period, and grows by one per cap's worth of faster reads,
+ * up to the configured maximum. A busy ensemble thus gets fewer concurrent reads from each
+ * client, instead of more retries.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class ZookeeperReadLimiter {
+	private static final Logger LOG = LoggerFactory.getLogger(ZookeeperReadLimiter.class);
+
+	private static volatile ZookeeperReadLimiter shared;
+
+	private final AtomicInteger   inFlight     = new AtomicInteger();
+	private final Queue<Runnable> pending      = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger   fastReads    = new AtomicInteger();
+	private final AtomicLong      lastDecrease = new AtomicLong(System.nanoTime());
+	private volatile int          maxInFlight;
+	private volatile int          limit;
+	private volatile long         targetLatencyNanos;
+
+	public ZookeeperReadLimiter(int maxInFlight) {
+		setMaxInFlight(maxInFlight);
+	}
+
+	/**
+	 * @return the limiter of this JVM, capped at {@code maxInFlight} from now on; its adapted cap
+	 * is kept while the maximum stays the same
+	 */
+	public static ZookeeperReadLimiter shared(int maxInFlight) {
+		ZookeeperReadLimiter limiter = shared;
+		if (limiter == null) {
+			synchronized (ZookeeperReadLimiter.class) {
+				limiter = shared;
+				if (limiter == null) {
+					return shared = new ZookeeperReadLimiter(maxInFlight);
+				}
+			}
+		}
+		limiter.setMaxInFlight(maxInFlight);
+		return limiter;
+	}
+
+	/**
+	 * Sets the maximum and resets the cap to it, unless the maximum is the same as before.
+	 */
+	public synchronized void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+		}
+		if (maxInFlight == this.maxInFlight) {
+			return;
+		}
+		this.maxInFlight = maxInFlight;
+		this.limit = maxInFlight;
+		drain();
+	}
+
+	/**
+	 * @param targetLatencyMs adapt the cap to keep reads below this latency, {@code 0} for a fixed cap
+	 */
+	public void setTargetLatencyMs(long targetLatencyMs) {
+		this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+		if (targetLatencyMs <= 0) {
+			limit = maxInFlight;
+			drain();
+		}
+	}
+
+	/**
+	 * @return the current cap
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Sends the read now, or once there is room for it. Every read sent has to be
+	 * {@link #release released}.
+	 */
+	void submit(Runnable read) {
+		pending.add(read);
+		drain();
+	}
+
+	/**
+	 * @param latencyNanos the time the read took, negative if it was not sent
+	 */
+	void release(long latencyNanos) {
+		inFlight.decrementAndGet();
+		if (latencyNanos >= 0) {
+			adapt(latencyNanos);
+		}
+		drain();
+	}
+
+	private void adapt(long latencyNanos) {
+		long target = targetLatencyNanos;
+		if (target <= 0) {
+			return;
+		}
+		int current = limit;
+		if (latencyNanos > target) {
+			long last = lastDecrease.get();
+			long now = System.nanoTime();
+			if (current > 1 && now - last > target && lastDecrease.compareAndSet(last, now)) {
+				limit = Math.max(1, current / 2);
+				fastReads.set(0);
+				LOG.debug("read took {}ms, limiting zookeeper reads to {}", TimeUnit.NANOSECONDS.toMillis(latencyNanos), limit);
+			}
+		} else if (current < maxInFlight && fastReads.incrementAndGet() >= current) {
+			fastReads.set(0);
+			limit = Math.min(maxInFlight, current + 1);
+		}
+	}
+
+	private void drain() {
+		while (!pending.isEmpty()) {
+			int current = inFlight.get();
+			if (current >= limit) {
+				return;
+			}
+			if (!inFlight.compareAndSet(current, current + 1)) {
+				continue;
+			}
+			Runnable read = pending.poll();
+			if (read == null) {
+				inFlight.decrementAndGet();
+				continue;
+			}
+			read.run();
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local copies of loaded zookeeper trees, one gzipped file per context.
+ * <p>
+ * A snapshot records the stat of the context root, so it can be validated with a single
+ * read of the root: it is current as long as the root's mzxid, pzxid and cversion are
+ * unchanged. That covers the root data and its direct children only, so whoever edits
+ * deeper nodes has to touch the root as well (e.g. set its data again) to invalidate the
+ * snapshots. Snapshots are bound to the connect string they were read from. They also keep the
+ * stat of every node, which lets {@link ZookeeperTreeLoader#setRevalidateNodes} re-read only the
+ * nodes that changed once the root did. Snapshots of the first format, written before, have no
+ * node stats and still read.
+ * <p>
+ * A store without a directory keeps its snapshots in memory, for the life of the store. It is
+ * shared by contexts that may edit any node in between, e.g. the tests of one JVM, so its
+ * snapshots are revalidated node by node even while the root is unchanged.
+ *
+ * @author Lee
+ * @date 2016/11/16 0016
+ */
+public class ZookeeperSnapshotStore {
+	private static final Logger LOG     = LoggerFactory.getLogger(ZookeeperSnapshotStore.class);
+	private static final int    MAGIC   = 0x414c5053; // ALPS
+	private static final int    VERSION = 2;
+
+	private final Path                                 directory;
+	private final String                               connectString;
+	private final ConcurrentMap<String, ZookeeperTree> memory = new ConcurrentHashMap<>();
+
+	public ZookeeperSnapshotStore(Path directory, String connectString) {
+		this.directory = directory;
+		this.connectString = connectString;
+	}
+
+	/**
+	 * @return a store that keeps its snapshots in memory
+	 */
+	public static ZookeeperSnapshotStore inMemory(String connectString) {
+		return new ZookeeperSnapshotStore(null, connectString);
+	}
+
+	/**
+	 * @return whether an unchanged root leaves the nodes below it to be checked as well
+	 */
+	public boolean isRevalidateNodes() {
+		return directory == null;
+	}
+
+	/**
+	 * @return the snapshot of the context rooted at {@code root}, or {@code null} if there is no usable one
+	 */
+	public ZookeeperTree read(String root) {
+		if (directory == null) {
+			return memory.get(root);
+		}
+		Path file = file(root);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+			int version = in.readInt() == MAGIC ? in.readInt() : -1;
+			if (version < 1 || version > VERSION) {
+				LOG.warn("Ignoring snapshot {} with unknown format", file);
+				return null;
+			}
+			if (!connectString.equals(in.readUTF()) || !root.equals(in.readUTF())) {
+				return null;
+			}
+			Stat rootStat = null;
+			if (in.readBoolean()) {
+				rootStat = new Stat();
+				rootStat.setMzxid(in.readLong());
+				rootStat.setPzxid(in.readLong());
+				rootStat.setCversion(in.readInt());
+				rootStat.setVersion(in.readInt());
+			}
+			ZookeeperTree tree = readNodes(in, root, rootStat);
+			return version > 1 && in.readBoolean() ? tree.withStats(readStats(in, root)) : tree;
+		} catch (IOException e) {
+			LOG.warn("Could not read snapshot " + file, e);
+			return null;
+		}
+	}
+
+	public void write(ZookeeperTree tree) {
+		if (directory == null) {
+			memory.put(tree.getRoot(), tree);
+			return;
+		}
+		Path file = file(tree.getRoot());
+		Path tmp = null;
+		try {
+			Files.createDirectories(directory);
+			tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(connectString);
+				out.writeUTF(tree.getRoot());
+				Stat rootStat = tree.getRootStat();
+				out.writeBoolean(rootStat != null);
+				if (rootStat != null) {
+					out.writeLong(rootStat.getMzxid());
+					out.writeLong(rootStat.getPzxid());
+					out.writeInt(rootStat.getCversion());
+					out.writeInt(rootStat.getVersion());
+				}
+				writeNodes(out, tree);
+				out.writeBoolean(tree.hasStats());
+				if (tree.hasStats()) {
+					writeStats(out, tree);
+				}
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			LOG.trace("wrote snapshot {}", file);
+		} catch (IOException e) {
+			LOG.warn("Could not write snapshot " + file, e);
+			if (tmp != null) {
+				tmp.toFile().delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes the nodes of {@code tree}, with paths relative to its root.
+	 */
+	static void writeNodes(DataOutputStream out, ZookeeperTree tree) throws IOException {
+		out.writeInt(tree.getPaths().size());
+		for (String path : tree.getPaths()) {
+			out.writeUTF(path.substring(tree.getRoot().length()));
+			byte[] bytes = tree.getData(path);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			List<String> names = tree.getChildren(path);
+			out.writeInt(names == null ? -1 : names.size());
+			if (names != null) {
+				for (String name : names) {
+					out.writeUTF(name);
+				}
+			}
+		}
+	}
+
+	static ZookeeperTree readNodes(DataInputStream in, String root, Stat rootStat) throws IOException {
+		int count = in.readInt();
+		Map<String, byte[]> data = new HashMap<>(count * 4 / 3 + 1);
+		Map<String, List<String>> children = new HashMap<>(count * 4 / 3 + 1);
+		for (int i = 0; i < count; i++) {
+			String path = root + in.readUTF();
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			data.put(path, bytes);
+			int childCount = in.readInt();
+			if (childCount >= 0) {
+				List<String> names = new ArrayList<>(childCount);
+				for (int j = 0; j < childCount; j++) {
+					names.add(in.readUTF());
+				}
+				children.put(path, names);
+			}
+		}
+		return new ZookeeperTree(root, rootStat, data, children);
+	}
+
+	private static void writeStats(DataOutputStream out, ZookeeperTree tree) throws IOException {
+		List<String> paths = new ArrayList<>();
+		for (String path : tree.getPaths()) {
+			if (tree.getStat(path) != null) {
+				paths.add(path);
+			}
+		}
+		out.writeInt(paths.size());
+		for (String path : paths) {
+			Stat stat = tree.getStat(path);
+			out.writeUTF(path.substring(tree.getRoot().length()));
+			out.writeLong(stat.getMzxid());
+			out.writeLong(stat.getPzxid());
+			out.writeInt(stat.getCversion());
+			out.writeInt(stat.getVersion());
+		}
+	}
+
+	private static Map<String, Stat> readStats(DataInputStream in, String root) throws IOException {
+		int count = in.readInt();
+		Map<String, Stat> stats = new HashMap<>(count * 4 / 3 + 1);
+		for (int i = 0; i < count; i++) {
+			String path = root + in.readUTF();
+			Stat stat = new Stat();
+			stat.setMzxid(in.readLong());
+			stat.setPzxid(in.readLong());
+			stat.setCversion(in.readInt());
+			stat.setVersion(in.readInt());
+			stats.put(path, stat);
+		}
+		return stats;
+	}
+
+	/**
+	 * @return whether a snapshot taken at {@code snapshot} is still current at {@code current}
+	 */
+	public static boolean isCurrent(Stat snapshot, Stat current) {
+		if (snapshot == null || current == null) {
+			return snapshot == current;
+		}
+		return snapshot.getMzxid() == current.getMzxid()
+		       && snapshot.getPzxid() == current.getPzxid()
+		       && snapshot.getCversion() == current.getCversion();
+	}
+
+	private Path file(String root) {
+		try {
+			return directory.resolve(URLEncoder.encode(root, "UTF-8") + ".snapshot");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
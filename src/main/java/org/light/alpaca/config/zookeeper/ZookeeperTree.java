@@ -0,0 +1,86 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.zookeeper.data.Stat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory copy of a zookeeper subtree, as read by {@link ZookeeperTreeLoader}.
+ *
+ * @author Lee
+ * @date 2016/11/02 0002
+ */
+public class ZookeeperTree {
+	private final String                    root;
+	private final Stat                      rootStat;
+	private final Map<String, byte[]>       data;
+	private final Map<String, List<String>> children;
+	private final Map<String, Stat>         stats;
+
+	ZookeeperTree(String root, Stat rootStat, Map<String, byte[]> data, Map<String, List<String>> children) {
+		this(root, rootStat, data, children, null);
+	}
+
+	ZookeeperTree(String root, Stat rootStat, Map<String, byte[]> data, Map<String, List<String>> children, Map<String, Stat> stats) {
+		this.root = root;
+		this.rootStat = rootStat;
+		this.data = data;
+		this.children = children;
+		this.stats = stats;
+	}
+
+	/**
+	 * @return the same tree, with the stat of each node
+	 */
+	ZookeeperTree withStats(Map<String, Stat> stats) {
+		return new ZookeeperTree(root, rootStat, data, children, stats);
+	}
+
+	public String getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the stat of the root node, or {@code null} if the root does not exist or was not read
+	 */
+	public Stat getRootStat() {
+		return rootStat;
+	}
+
+	/**
+	 * @return the paths of all nodes in the tree
+	 */
+	public Set<String> getPaths() {
+		return data.keySet();
+	}
+
+	/**
+	 * @return the data of the node, or {@code null} if the node does not exist
+	 */
+	public byte[] getData(String path) {
+		return data.get(path);
+	}
+
+	/**
+	 * @return the children of the node, or {@code null} if the node does not exist
+	 */
+	public List<String> getChildren(String path) {
+		return children.get(path);
+	}
+
+	/**
+	 * @return whether the tree knows the stat of its nodes, trees read from a bundle do not
+	 */
+	public boolean hasStats() {
+		return stats != null;
+	}
+
+	/**
+	 * @return the stat of the node when it was read, or {@code null} if it is not known
+	 */
+	public Stat getStat(String path) {
+		return stats == null ? null : stats.get(path);
+	}
+}
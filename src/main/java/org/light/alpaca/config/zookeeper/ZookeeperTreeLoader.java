@@ -0,0 +1,531 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.light.alpaca.config.metrics.ConfigMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ReflectionUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Reads whole zookeeper subtrees with curator's background api, keeping at most
+ * {@code maxInFlight} requests outstanding across all trees loaded by this instance, or across
+ * every loader sharing its {@link ZookeeperReadLimiter}.
+ * <p>
+ * When many instances start at once, a startup jitter spreads their first tree walks over a
+ * window of time, and node revalidation lets instances with a snapshot re-read only the nodes
+ * that changed.
+ *
+ * @author Lee
+ * @date 2016/11/02 0002
+ */
+public class ZookeeperTreeLoader {
+	private static final Logger LOG                   = LoggerFactory.getLogger(ZookeeperTreeLoader.class);
+	public static final  int    DEFAULT_MAX_IN_FLIGHT = 64;
+	private static final byte[] EMPTY                 = new byte[0];
+
+	private final CuratorFramework curator;
+
+	private volatile ZookeeperReadLimiter    limiter;
+	private volatile ZookeeperSnapshotStore  snapshotStore;
+	private volatile ConfigMetrics           metrics;
+	private volatile boolean                 bundles;
+	private volatile boolean                 revalidateNodes;
+	private volatile long                    startupJitterMs;
+	private volatile CompletableFuture<Void> startupJitter;
+
+	public ZookeeperTreeLoader(CuratorFramework curator) {
+		this(curator, DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	public ZookeeperTreeLoader(CuratorFramework curator, int maxInFlight) {
+		this(curator, new ZookeeperReadLimiter(maxInFlight));
+	}
+
+	public ZookeeperTreeLoader(CuratorFramework curator, ZookeeperReadLimiter limiter) {
+		this.curator = curator;
+		this.limiter = limiter;
+	}
+
+	public CuratorFramework getCurator() {
+		return curator;
+	}
+
+	/**
+	 * Keeps a local snapshot of every tree read from now on. A snapshot whose root is unchanged
+	 * is used instead of reading the tree again, and any snapshot is used while disconnected.
+	 */
+	public void setSnapshotStore(ZookeeperSnapshotStore snapshotStore) {
+		this.snapshotStore = snapshotStore;
+	}
+
+	/**
+	 * @return the store of local snapshots, {@code null} if there is none
+	 */
+	public ZookeeperSnapshotStore getSnapshotStore() {
+		return snapshotStore;
+	}
+
+	/**
+	 * Reads contexts from their {@link ZookeeperBundle} where there is a current one, and walks
+	 * the tree otherwise.
+	 */
+	public void setBundles(boolean bundles) {
+		this.bundles = bundles;
+	}
+
+	/**
+	 * Once the root of a snapshot changed, checks the stat of each node the snapshot knows and
+	 * reads the data or children only where they changed, instead of reading every node again.
+	 * Zookeeper keeps no stat of a whole subtree, so every node is still visited, but with one
+	 * small read instead of two.
+	 */
+	public void setRevalidateNodes(boolean revalidateNodes) {
+		this.revalidateNodes = revalidateNodes;
+	}
+
+	/**
+	 * Delays the first tree walk of this loader by a random time below {@code startupJitterMs},
+	 * so that instances started together do not all walk their trees at the same moment. Reads
+	 * of a bundle or of a snapshot's root are not delayed.
+	 */
+	public void setStartupJitterMs(long startupJitterMs) {
+		this.startupJitterMs = startupJitterMs;
+	}
+
+	/**
+	 * Records the reads and the loaded trees from now on.
+	 */
+	public void setMetrics(ConfigMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Starts reading the subtree below {@code context}. The returned future completes once
+	 * the data and children of every node have been read.
+	 */
+	public CompletableFuture<ZookeeperTree> load(String context) {
+		String root = context.startsWith("/") ? context : "/" + context;
+		if (snapshotStore == null) {
+			return read(root);
+		}
+		ZookeeperTree snapshot = snapshotStore.read(root);
+		if (snapshot == null) {
+			return readAndStore(root);
+		}
+		if (!curator.getZookeeperClient().isConnected()) {
+			LOG.warn("Not connected to zookeeper, using the local snapshot of {}", root);
+			if (metrics != null) {
+				metrics.contextFromSnapshot(root);
+			}
+			return CompletableFuture.completedFuture(snapshot);
+		}
+		return validate(snapshot);
+	}
+
+	private CompletableFuture<ZookeeperTree> read(String root) {
+		return bundles ? readBundle(root) : walk(root);
+	}
+
+	/**
+	 * Reads the bundle and the stat of the root together, one round trip, and walks the tree
+	 * if the bundle turns out to be missing, stale or damaged. Both reads go through the limiter
+	 * and are recorded like the reads of a walk.
+	 */
+	private CompletableFuture<ZookeeperTree> readBundle(String root) {
+		long startedAt = System.nanoTime();
+		CompletableFuture<Stat> stat = send(callback -> curator.checkExists().inBackground(callback).forPath(root), ConfigMetrics::checkExists)
+				.thenApply(event -> event.getResultCode() == KeeperException.Code.OK.intValue() ? event.getStat() : null);
+		CompletableFuture<byte[]> bundle = send(callback -> curator.getData().inBackground(callback).forPath(ZookeeperBundle.path(root)), ConfigMetrics::getData)
+				.thenApply(event -> event.getResultCode() == KeeperException.Code.OK.intValue() ? event.getData() : null);
+		return stat.thenCombine(bundle, (current, data) -> {
+			ZookeeperTree tree = ZookeeperBundle.read(root, data, current);
+			ConfigMetrics metrics = this.metrics;
+			if (tree != null && metrics != null) {
+				metrics.contextLoaded(root, tree.getPaths().size(), data.length, System.nanoTime() - startedAt);
+			}
+			return tree;
+		}).handle((tree, e) -> {
+			if (e != null) {
+				LOG.warn("Could not read the bundle of " + root, e);
+			}
+			return tree;
+		}).thenCompose(tree -> {
+			if (tree == null) {
+				return walk(root);
+			}
+			LOG.trace("loaded {} nodes below {} from its bundle", tree.getPaths().size(), root);
+			return CompletableFuture.completedFuture(tree);
+		});
+	}
+
+	/**
+	 * Sends a read outside of a tree walk once the limiter has room for it.
+	 *
+	 * @param record records the time the read took
+	 * @return the event of the read, whatever its result code
+	 */
+	private CompletableFuture<CuratorEvent> send(Call call, ObjLongConsumer<ConfigMetrics> record) {
+		CompletableFuture<CuratorEvent> future = new CompletableFuture<>();
+		final ZookeeperReadLimiter limiter = this.limiter;
+		limiter.submit(() -> {
+			long sentAt = System.nanoTime();
+			try {
+				call.send((client, event) -> {
+					long nanos = System.nanoTime() - sentAt;
+					limiter.release(nanos);
+					ConfigMetrics metrics = this.metrics;
+					if (metrics != null) {
+						record.accept(metrics, nanos);
+						int rc = event.getResultCode();
+						if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NONODE.intValue()) {
+							metrics.readError();
+						}
+					}
+					future.complete(event);
+				});
+			} catch (Exception e) {
+				limiter.release(-1);
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	private interface Call {
+		void send(BackgroundCallback callback) throws Exception;
+	}
+
+	private CompletableFuture<ZookeeperTree> walk(String root) {
+		return walk(root, null);
+	}
+
+	/**
+	 * @param previous a tree of the same root with the stats of its nodes, the walk only reads what changed since
+	 */
+	private CompletableFuture<ZookeeperTree> walk(String root, ZookeeperTree previous) {
+		return startupJitter().thenCompose(ready -> {
+			TreeRead read = new TreeRead(root, previous);
+			read.node(root);
+			return read.future;
+		});
+	}
+
+	private CompletableFuture<Void> startupJitter() {
+		CompletableFuture<Void> jitter = startupJitter;
+		if (jitter == null) {
+			synchronized (this) {
+				jitter = startupJitter;
+				if (jitter == null) {
+					jitter = startupJitter = delay(startupJitterMs > 0 ? ThreadLocalRandom.current().nextLong(startupJitterMs) : 0);
+				}
+			}
+		}
+		return jitter;
+	}
+
+	private static CompletableFuture<Void> delay(long delayMs) {
+		if (delayMs <= 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		LOG.info("delaying the first zookeeper tree walk by {}ms", delayMs);
+		CompletableFuture<Void> delay = new CompletableFuture<>();
+		Thread thread = new Thread(() -> {
+			try {
+				TimeUnit.MILLISECONDS.sleep(delayMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			delay.complete(null);
+		}, "alpaca-startup-jitter");
+		thread.setDaemon(true);
+		thread.start();
+		return delay;
+	}
+
+	private CompletableFuture<ZookeeperTree> readAndStore(String root) {
+		return read(root).thenApplyAsync(tree -> {
+			snapshotStore.write(tree);
+			return tree;
+		});
+	}
+
+	private CompletableFuture<ZookeeperTree> revalidateAndStore(ZookeeperTree snapshot) {
+		return walk(snapshot.getRoot(), snapshot).thenApplyAsync(tree -> {
+			snapshotStore.write(tree);
+			return tree;
+		});
+	}
+
+	/**
+	 * Reads the stat of the root only, and walks the tree if it changed since the snapshot, or
+	 * always for a store that {@link ZookeeperSnapshotStore#isRevalidateNodes revalidates nodes}.
+	 */
+	private CompletableFuture<ZookeeperTree> validate(ZookeeperTree snapshot) {
+		CompletableFuture<ZookeeperTree> future = new CompletableFuture<>();
+		String root = snapshot.getRoot();
+		try {
+			curator.checkExists().inBackground((client, event) -> {
+				int rc = event.getResultCode();
+				if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NONODE.intValue()) {
+					LOG.warn("Could not check {} ({}), using the local snapshot", root, KeeperException.Code.get(rc));
+					future.complete(snapshot);
+				} else if (ZookeeperSnapshotStore.isCurrent(snapshot.getRootStat(), event.getStat()) && !snapshotStore.isRevalidateNodes()) {
+					LOG.trace("snapshot of {} is current", root);
+					if (metrics != null) {
+						metrics.contextConfirmed(root);
+					}
+					future.complete(snapshot);
+				} else {
+					boolean revalidate = (revalidateNodes || snapshotStore.isRevalidateNodes()) && !bundles && snapshot.hasStats();
+					(revalidate ? revalidateAndStore(snapshot) : readAndStore(root)).whenComplete((tree, e) -> {
+						if (e != null) {
+							future.completeExceptionally(e);
+						} else {
+							future.complete(tree);
+						}
+					});
+				}
+			}).forPath(root);
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Waits for a load, rethrowing read failures the same way the blocking curator calls do.
+	 */
+	public static <T> T await(CompletableFuture<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading zookeeper tree", e);
+		} catch (ExecutionException e) {
+			ReflectionUtils.rethrowRuntimeException(e.getCause());
+		}
+		return null;
+	}
+
+	private void submit(Request request) {
+		request.limiter.submit(request::send);
+	}
+
+	private abstract class Request implements BackgroundCallback {
+		final TreeRead             read;
+		final String               path;
+		final ZookeeperReadLimiter limiter = ZookeeperTreeLoader.this.limiter;
+		long sentAt;
+
+		Request(TreeRead read, String path) {
+			this.read = read;
+			this.path = path;
+		}
+
+		abstract void call() throws Exception;
+
+		abstract void complete(CuratorEvent event);
+
+		abstract void record(ConfigMetrics metrics, long nanos);
+
+		void send() {
+			if (read.future.isDone()) { // the tree already failed
+				limiter.release(-1);
+				return;
+			}
+			sentAt = System.nanoTime();
+			try {
+				call();
+			} catch (Exception e) {
+				limiter.release(-1);
+				read.fail(e);
+			}
+		}
+
+		@Override
+		public void processResult(CuratorFramework client, CuratorEvent event) {
+			limiter.release(System.nanoTime() - sentAt);
+			int rc = event.getResultCode();
+			ConfigMetrics metrics = ZookeeperTreeLoader.this.metrics;
+			if (metrics != null) {
+				record(metrics, System.nanoTime() - sentAt);
+				if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NONODE.intValue()) {
+					metrics.readError();
+				}
+			}
+			if (rc == KeeperException.Code.OK.intValue()) {
+				complete(event);
+				read.done();
+			} else if (rc == KeeperException.Code.NONODE.intValue()) { // not found
+				read.done();
+			} else {
+				read.fail(KeeperException.create(KeeperException.Code.get(rc), path));
+			}
+		}
+	}
+
+	private class GetData extends Request {
+		GetData(TreeRead read, String path) {
+			super(read, path);
+		}
+
+		@Override
+		void call() throws Exception {
+			curator.getData().inBackground(this).forPath(path);
+		}
+
+		@Override
+		void complete(CuratorEvent event) {
+			read.data.put(path, event.getData() == null ? EMPTY : event.getData());
+			read.bytes.addAndGet(event.getData() == null ? 0 : event.getData().length);
+			read.stats.put(path, event.getStat());
+			if (path.equals(read.root)) {
+				read.rootStat = event.getStat();
+			}
+		}
+
+		@Override
+		void record(ConfigMetrics metrics, long nanos) {
+			metrics.getData(nanos);
+		}
+	}
+
+	private class GetChildren extends Request {
+		GetChildren(TreeRead read, String path) {
+			super(read, path);
+		}
+
+		@Override
+		void call() throws Exception {
+			curator.getChildren().inBackground(this).forPath(path);
+		}
+
+		@Override
+		void complete(CuratorEvent event) {
+			List<String> children = event.getChildren();
+			if (path.equals(read.root) && children.contains(ZookeeperBundle.NODE)) {
+				children = new ArrayList<>(children);
+				children.remove(ZookeeperBundle.NODE);
+			}
+			read.children.put(path, children);
+			for (String child : children) {
+				read.node(path + "/" + child);
+			}
+		}
+
+		@Override
+		void record(ConfigMetrics metrics, long nanos) {
+			metrics.getChildren(nanos);
+		}
+	}
+
+	/**
+	 * Compares the stat of a node with its stat in the previous tree, and takes over its data
+	 * while the mzxid is the same and its children while the pzxid is.
+	 */
+	private class CheckExists extends Request {
+		CheckExists(TreeRead read, String path) {
+			super(read, path);
+		}
+
+		@Override
+		void call() throws Exception {
+			curator.checkExists().inBackground(this).forPath(path);
+		}
+
+		@Override
+		void complete(CuratorEvent event) {
+			Stat stat = event.getStat();
+			if (stat == null) { // gone
+				return;
+			}
+			Stat previous = read.previous.getStat(path);
+			if (path.equals(read.root)) {
+				read.rootStat = stat;
+			}
+			if (stat.getMzxid() == previous.getMzxid()) {
+				byte[] data = read.previous.getData(path);
+				read.data.put(path, data);
+				read.bytes.addAndGet(data.length);
+				read.stats.put(path, stat);
+			} else {
+				read.outstanding.incrementAndGet();
+				submit(new GetData(read, path));
+			}
+			List<String> children = read.previous.getChildren(path);
+			if (stat.getPzxid() == previous.getPzxid() && children != null) {
+				read.children.put(path, children);
+				for (String child : children) {
+					read.node(path + "/" + child);
+				}
+			} else {
+				read.outstanding.incrementAndGet();
+				submit(new GetChildren(read, path));
+			}
+		}
+
+		@Override
+		void record(ConfigMetrics metrics, long nanos) {
+			metrics.checkExists(nanos);
+		}
+	}
+
+	private class TreeRead {
+		final String                                  root;
+		final CompletableFuture<ZookeeperTree>        future      = new CompletableFuture<>();
+		final ConcurrentHashMap<String, byte[]>       data        = new ConcurrentHashMap<>();
+		final ConcurrentHashMap<String, List<String>> children    = new ConcurrentHashMap<>();
+		final AtomicInteger                           outstanding = new AtomicInteger();
+		final ConcurrentHashMap<String, Stat>         stats       = new ConcurrentHashMap<>();
+		final AtomicLong                              bytes       = new AtomicLong();
+		final long                                    startedAt   = System.nanoTime();
+		final ZookeeperTree                           previous;
+		volatile Stat rootStat;
+
+		TreeRead(String root, ZookeeperTree previous) {
+			this.root = root;
+			this.previous = previous;
+		}
+
+		void node(String path) {
+			if (previous != null && previous.getStat(path) != null && previous.getData(path) != null) {
+				outstanding.incrementAndGet();
+				submit(new CheckExists(this, path));
+				return;
+			}
+			outstanding.addAndGet(2);
+			submit(new GetData(this, path));
+			submit(new GetChildren(this, path));
+		}
+
+		void done() {
+			if (outstanding.decrementAndGet() == 0) {
+				LOG.trace("loaded {} nodes below {}", data.size(), root);
+				ConfigMetrics metrics = ZookeeperTreeLoader.this.metrics;
+				if (metrics != null) {
+					metrics.contextLoaded(root, data.size(), bytes.get(), System.nanoTime() - startedAt);
+				}
+				future.complete(new ZookeeperTree(root, rootStat, data, children, stats));
+			}
+		}
+
+		void fail(Exception e) {
+			future.completeExceptionally(e);
+		}
+	}
+}
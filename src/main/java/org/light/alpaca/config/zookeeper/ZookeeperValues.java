@@ -0,0 +1,279 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Values too large for a plain znode. A value whose data starts with the gzip magic is
+ * decompressed. A value split into chunks keeps a header as its data and the chunks as its
+ * children {@code _chunk<generation>_0}, {@code _chunk<generation>_1}, ...; the tree walk reads
+ * them in parallel with the rest of the tree, and they are decoded in place, one after the other,
+ * without joining them. Chunks may hold a compressed value in turn.
+ * <p>
+ * Each write of a chunked value creates the chunks of a new generation, switches the header to it
+ * and deletes the older generations last, so the chunks a header names never change under a
+ * reader. Headers of the first format name their chunks {@code _chunk0}, {@code _chunk1}, ... and
+ * still read. Plain text never starts with either header, so existing values read as before.
+ * Nodes named like chunks never yield keys. {@link #write} stores a value in whichever form fits.
+ *
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public final class ZookeeperValues {
+	private static final Logger  LOG                = LoggerFactory.getLogger(ZookeeperValues.class);
+	private static final Charset UTF_8              = Charset.forName("UTF-8");
+	public static final  String  CHUNK_PREFIX       = "_chunk";
+	private static final int     CHUNK_MAGIC        = 0x00414c43; // \0ALC
+	private static final int     VERSION            = 2;
+	/**
+	 * magic, version, [generation,] count, length, crc; the first version has no generation
+	 */
+	private static final int     HEADER_V1          = 4 + 4 + 4 + 4 + 8;
+	private static final int     HEADER             = HEADER_V1 + 4;
+	/**
+	 * well below the default jute.maxbuffer of 1MB
+	 */
+	public static final  int     CHUNK_SIZE         = 512 * 1024;
+	/**
+	 * values smaller than this are stored as they are
+	 */
+	public static final  int     COMPRESS_THRESHOLD = 1024;
+
+	private ZookeeperValues() {
+	}
+
+	static boolean isCompressed(byte[] data) {
+		return data != null && data.length >= 2 && data[0] == (byte) 0x1f && data[1] == (byte) 0x8b;
+	}
+
+	static boolean isChunked(byte[] data) {
+		return data != null && data.length >= HEADER_V1 && ByteBuffer.wrap(data).getInt() == CHUNK_MAGIC;
+	}
+
+	/**
+	 * @return whether {@code name} is the name of a chunk, {@code _chunk<generation>_<index>} or {@code _chunk<index>}
+	 */
+	static boolean isChunk(String name) {
+		if (!name.startsWith(CHUNK_PREFIX)) {
+			return false;
+		}
+		int separator = name.indexOf('_', CHUNK_PREFIX.length());
+		if (separator < 0) {
+			return isNumber(name, CHUNK_PREFIX.length(), name.length());
+		}
+		return isNumber(name, CHUNK_PREFIX.length(), separator) && isNumber(name, separator + 1, name.length());
+	}
+
+	private static boolean isNumber(String name, int from, int to) {
+		if (from == to) {
+			return false;
+		}
+		for (int i = from; i < to; i++) {
+			if (!Character.isDigit(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String chunkName(int generation, int index) {
+		return generation < 0 ? CHUNK_PREFIX + index : CHUNK_PREFIX + generation + "_" + index;
+	}
+
+	/**
+	 * @param data the data of {@code path}
+	 * @return the paths of the chunks the header of {@code path} names, none if it is not chunked
+	 */
+	static List<String> chunkPaths(String path, byte[] data) {
+		Header header = Header.of(data);
+		if (header == null) {
+			return Collections.emptyList();
+		}
+		List<String> paths = new ArrayList<>(header.count);
+		for (int i = 0; i < header.count; i++) {
+			paths.add(path + "/" + chunkName(header.generation, i));
+		}
+		return paths;
+	}
+
+	/**
+	 * @return whether the value needs decoding, see {@link #open}
+	 */
+	static boolean isEncoded(byte[] data) {
+		return isCompressed(data) || isChunked(data);
+	}
+
+	/**
+	 * @param data the data of {@code path}
+	 * @return the decoded value of {@code path}, or {@code null} if its chunks are incomplete; callers
+	 * that loaded the value before keep that one then
+	 */
+	static InputStream open(ZookeeperTree tree, String path, byte[] data) throws IOException {
+		InputStream in;
+		byte[] first;
+		if (isChunked(data)) {
+			Header header = Header.of(data);
+			if (header == null) {
+				LOG.warn("Ignoring chunked value of {} with unknown format", path);
+				return null;
+			}
+			List<InputStream> chunks = new ArrayList<>(header.count);
+			CRC32 crc = new CRC32();
+			long total = 0;
+			first = new byte[0];
+			for (int i = 0; i < header.count; i++) {
+				byte[] chunk = tree.getData(path + "/" + chunkName(header.generation, i));
+				if (chunk == null) {
+					// read before its chunks, or after a newer generation replaced them
+					LOG.warn("Chunk {} of {} is missing", i, path);
+					return null;
+				}
+				crc.update(chunk);
+				total += chunk.length;
+				chunks.add(new ByteArrayInputStream(chunk));
+				first = i == 0 ? chunk : first;
+			}
+			if (total != header.length || crc.getValue() != header.checksum) {
+				LOG.warn("Chunks of {} do not match their header", path);
+				return null;
+			}
+			in = new SequenceInputStream(Collections.enumeration(chunks));
+		} else {
+			first = data;
+			in = new ByteArrayInputStream(data);
+		}
+		return isCompressed(first) ? new GZIPInputStream(in) : in;
+	}
+
+	/**
+	 * @return the decoded value of {@code path} as text, or {@code null} if it cannot be decoded
+	 */
+	static String text(ZookeeperTree tree, String path, byte[] data) {
+		try (InputStream in = open(tree, path, data)) {
+			if (in == null) {
+				return null;
+			}
+			StringBuilder text = new StringBuilder(data.length);
+			Reader reader = new InputStreamReader(in, UTF_8);
+			char[] buffer = new char[8192];
+			int n;
+			while ((n = reader.read(buffer)) >= 0) {
+				text.append(buffer, 0, n);
+			}
+			return text.toString();
+		} catch (IOException e) {
+			LOG.warn("Could not decode the value of " + path, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores {@code value} at {@code path}, compressed if that makes it smaller and in chunks if it
+	 * is still too large for one znode. The chunks of a new generation are written before the header
+	 * that refers to them, and the chunks of the previous generations removed last.
+	 */
+	public static void write(CuratorFramework curator, String path, byte[] value) throws Exception {
+		byte[] stored = value;
+		if (value.length >= COMPRESS_THRESHOLD) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(value.length / 4);
+			try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+				out.write(value);
+			}
+			if (compressed.size() < value.length) {
+				stored = compressed.toByteArray();
+			}
+		}
+		List<String> existing = Collections.emptyList();
+		int generation = 0;
+		if (curator.checkExists().forPath(path) != null) {
+			existing = curator.getChildren().forPath(path);
+			Header previous = Header.of(curator.getData().forPath(path));
+			generation = previous == null ? 0 : previous.generation + 1;
+		}
+		List<String> current = new ArrayList<>();
+		if (stored.length <= CHUNK_SIZE) {
+			set(curator, path, stored);
+		} else {
+			int count = (stored.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			for (int i = 0; i < count; i++) {
+				int from = i * CHUNK_SIZE;
+				byte[] chunk = new byte[Math.min(CHUNK_SIZE, stored.length - from)];
+				System.arraycopy(stored, from, chunk, 0, chunk.length);
+				current.add(chunkName(generation, i));
+				// left over by a writer that failed before its header, or new
+				set(curator, path + "/" + current.get(i), chunk);
+			}
+			CRC32 crc = new CRC32();
+			crc.update(stored);
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(CHUNK_MAGIC).putInt(VERSION).putInt(generation).putInt(count).putInt(stored.length).putLong(crc.getValue());
+			set(curator, path, header.array());
+		}
+		for (String child : existing) {
+			if (isChunk(child) && !current.contains(child)) {
+				curator.delete().forPath(path + "/" + child);
+			}
+		}
+	}
+
+	/**
+	 * The header of a chunked value; the chunks of a first format header have no generation.
+	 */
+	private static final class Header {
+		private final int  generation;
+		private final int  count;
+		private final long length;
+		private final long checksum;
+
+		private Header(int generation, int count, long length, long checksum) {
+			this.generation = generation;
+			this.count = count;
+			this.length = length;
+			this.checksum = checksum;
+		}
+
+		/**
+		 * @return the header, or {@code null} if {@code data} is not chunked or of an unknown format
+		 */
+		static Header of(byte[] data) {
+			if (!isChunked(data)) {
+				return null;
+			}
+			ByteBuffer header = ByteBuffer.wrap(data);
+			header.getInt();
+			int version = header.getInt();
+			if (version == 1) {
+				return new Header(-1, header.getInt(), header.getInt() & 0xffffffffL, header.getLong());
+			}
+			if (version != VERSION || data.length < HEADER) {
+				return null;
+			}
+			return new Header(header.getInt(), header.getInt(), header.getInt() & 0xffffffffL, header.getLong());
+		}
+	}
+
+	private static void set(CuratorFramework curator, String path, byte[] data) throws Exception {
+		if (curator.checkExists().forPath(path) == null) {
+			curator.create().creatingParentsIfNeeded().forPath(path, data);
+		} else {
+			curator.setData().forPath(path, data);
+		}
+	}
+}
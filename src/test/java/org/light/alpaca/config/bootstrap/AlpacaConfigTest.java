@@ -0,0 +1,78 @@
+package org.light.alpaca.config.bootstrap;
+
+import org.junit.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class AlpacaConfigTest {
+	@Test
+	public void convertsNumbersLikeTheEnvironment() {
+		Map<String, Object> values = new HashMap<>();
+		values.put("spaced", " 42 ");
+		values.put("hex", "0x10");
+		values.put("large", "5000000000");
+		values.put("invalid", "many");
+		StandardEnvironment environment = new StandardEnvironment();
+		environment.getPropertySources().addFirst(new MapPropertySource("test", values));
+		AlpacaConfig config = new AlpacaConfig(environment);
+
+		for (String key : values.keySet()) {
+			Long expected = key.equals("invalid") ? -1L : environment.getProperty(key, Long.class);
+			assertEquals(key, expected.longValue(), config.longKey(key, -1).get());
+		}
+		assertEquals(42, config.intKey("spaced", -1).get());
+		assertEquals(16, config.intKey("hex", -1).get());
+		// too large for an int
+		assertEquals(-1, config.intKey("large", -1).get());
+		assertEquals(-1, config.intKey("invalid", -1).get());
+	}
+
+	@Test
+	public void parsesDurationsInMillisByDefault() {
+		assertEquals(Duration.ofMillis(250), AlpacaConfig.DurationKey.parse("250"));
+		assertEquals(Duration.ofMillis(250), AlpacaConfig.DurationKey.parse("250ms"));
+		assertEquals(Duration.ofMillis(-5), AlpacaConfig.DurationKey.parse("-5"));
+	}
+
+	@Test
+	public void parsesDurationUnits() {
+		assertEquals(Duration.ofNanos(7), AlpacaConfig.DurationKey.parse("7ns"));
+		assertEquals(Duration.ofNanos(7000), AlpacaConfig.DurationKey.parse("7us"));
+		assertEquals(Duration.ofSeconds(30), AlpacaConfig.DurationKey.parse("30s"));
+		assertEquals(Duration.ofSeconds(30), AlpacaConfig.DurationKey.parse("30 S"));
+		assertEquals(Duration.ofMinutes(2), AlpacaConfig.DurationKey.parse("2m"));
+		assertEquals(Duration.ofHours(1), AlpacaConfig.DurationKey.parse("1h"));
+		assertEquals(Duration.ofDays(3), AlpacaConfig.DurationKey.parse("3d"));
+	}
+
+	@Test
+	public void parsesIsoDurations() {
+		assertEquals(Duration.ofSeconds(90), AlpacaConfig.DurationKey.parse("PT1M30S"));
+		assertEquals(Duration.ofSeconds(-1), AlpacaConfig.DurationKey.parse("-pt1s"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownUnits() {
+		AlpacaConfig.DurationKey.parse("3w");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsFractions() {
+		AlpacaConfig.DurationKey.parse("1.5s");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsValuesWithoutAmount() {
+		AlpacaConfig.DurationKey.parse("s");
+	}
+}
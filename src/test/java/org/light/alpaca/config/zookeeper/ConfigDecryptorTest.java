@@ -0,0 +1,141 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class ConfigDecryptorTest {
+	private static final String CONTEXT = "/config/applications/app/dev";
+
+	private final Map<String, SecretKey> keys    = new HashMap<>();
+	private final AtomicInteger          lookups = new AtomicInteger();
+	private       ConfigDecryptor        decryptor;
+
+	@Before
+	public void setUp() throws GeneralSecurityException {
+		keys.put(null, newKey());
+		keys.put("other", newKey());
+		decryptor = new ConfigDecryptor(alias -> {
+			lookups.incrementAndGet();
+			SecretKey key = keys.get(alias);
+			if (key == null) {
+				throw new GeneralSecurityException("No key " + alias);
+			}
+			return key;
+		});
+	}
+
+	@Test
+	public void decryptsWhatItEncrypted() throws GeneralSecurityException {
+		String value = ConfigDecryptor.encrypt(keys.get(null), null, "secret");
+		assertTrue(value.startsWith(ConfigDecryptor.PREFIX));
+		assertFalse(value.contains("secret"));
+		assertEquals("secret", ConfigDecryptor.reveal(decryptor.decrypt(CONTEXT, "password", value)));
+	}
+
+	@Test
+	public void decryptsWithTheNamedKey() throws GeneralSecurityException {
+		String value = ConfigDecryptor.encrypt(keys.get("other"), "other", "secret");
+		assertTrue(value.startsWith(ConfigDecryptor.PREFIX + "{key:other}"));
+		assertEquals("secret", ConfigDecryptor.reveal(decryptor.decrypt(CONTEXT, "password", value)));
+	}
+
+	@Test
+	public void encryptsWithAFreshIv() throws GeneralSecurityException {
+		assertNotEquals(ConfigDecryptor.encrypt(keys.get(null), null, "secret"), ConfigDecryptor.encrypt(keys.get(null), null, "secret"));
+	}
+
+	@Test
+	public void valuesThatDoNotDecryptHaveNoSecret() throws GeneralSecurityException {
+		assertNull(decryptor.decrypt(CONTEXT, "wrongKey", ConfigDecryptor.encrypt(keys.get("other"), null, "secret")));
+		assertNull(decryptor.decrypt(CONTEXT, "unknownKey", ConfigDecryptor.encrypt(keys.get("other"), "missing", "secret")));
+		assertNull(decryptor.decrypt(CONTEXT, "notBase64", ConfigDecryptor.PREFIX + "not base64!"));
+		assertNull(decryptor.decrypt(CONTEXT, "tooShort", ConfigDecryptor.PREFIX + "AAAA"));
+	}
+
+	@Test
+	public void decryptsAValueOnlyOnceItChanged() throws GeneralSecurityException {
+		String value = ConfigDecryptor.encrypt(keys.get(null), null, "secret");
+		decryptor.decrypt(CONTEXT, "password", value);
+		decryptor.decrypt(CONTEXT, "password", value);
+		assertEquals(1, lookups.get());
+		ConfigDecryptor.Secret changed = decryptor.decrypt(CONTEXT, "password", ConfigDecryptor.encrypt(keys.get(null), null, "secret"));
+		assertEquals(2, lookups.get());
+		// re-encrypting the same text is no change
+		assertEquals(decryptor.decrypt(CONTEXT, "other", value), changed);
+	}
+
+	@Test
+	public void decryptsAllValuesOfAContext() throws GeneralSecurityException {
+		Map<String, String> values = new HashMap<>();
+		for (int i = 0; i < 20; i++) {
+			values.put("key" + i, ConfigDecryptor.encrypt(keys.get(null), null, "secret" + i));
+		}
+		values.put("broken", ConfigDecryptor.PREFIX + "AAAA");
+		Map<String, ConfigDecryptor.Secret> secrets = decryptor.decryptAll(CONTEXT, values);
+		assertEquals(20, secrets.size());
+		assertEquals("secret7", ConfigDecryptor.reveal(secrets.get("key7")));
+	}
+
+	@Test
+	public void secretsPrintMasked() throws GeneralSecurityException {
+		ConfigDecryptor.Secret secret = decryptor.decrypt(CONTEXT, "password", ConfigDecryptor.encrypt(keys.get(null), null, "secret"));
+		assertEquals("******", secret.toString());
+		assertEquals("plain", ConfigDecryptor.reveal("plain"));
+	}
+
+	@Test
+	public void dropsThePlainTextsOfRemovedKeys() throws GeneralSecurityException {
+		String a = ConfigDecryptor.encrypt(keys.get(null), null, "a");
+		String b = ConfigDecryptor.encrypt(keys.get(null), null, "b");
+		decryptor.decrypt(CONTEXT, "a", a);
+		decryptor.decrypt(CONTEXT, "b", b);
+		decryptor.decrypt("/other", "a", a);
+		decryptor.retain(CONTEXT, Collections.singleton("a"));
+		lookups.set(0);
+		decryptor.decrypt(CONTEXT, "a", a);
+		decryptor.decrypt("/other", "a", a);
+		assertEquals(0, lookups.get());
+		decryptor.decrypt(CONTEXT, "b", b);
+		assertEquals(1, lookups.get());
+
+		decryptor.forget(CONTEXT, Collections.singleton("a"));
+		decryptor.decrypt(CONTEXT, "a", a);
+		assertEquals(2, lookups.get());
+
+		decryptor.clear();
+		decryptor.decrypt("/other", "a", a);
+		assertEquals(3, lookups.get());
+	}
+
+	@Test
+	public void recognizesEncryptedValues() {
+		assertTrue(ConfigDecryptor.isEncrypted("{cipher}abc"));
+		assertFalse(ConfigDecryptor.isEncrypted("abc"));
+		assertFalse(ConfigDecryptor.isEncrypted(null));
+		assertFalse(ConfigDecryptor.isEncrypted(42));
+	}
+
+	private static SecretKey newKey() throws GeneralSecurityException {
+		KeyGenerator generator = KeyGenerator.getInstance("AES");
+		generator.init(128);
+		return generator.generateKey();
+	}
+}
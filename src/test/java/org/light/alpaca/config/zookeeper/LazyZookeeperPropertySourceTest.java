@@ -0,0 +1,81 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class LazyZookeeperPropertySourceTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static TestingServer    server;
+	private static CuratorFramework curator;
+
+	@BeforeClass
+	public static void startZookeeper() throws Exception {
+		server = new TestingServer();
+		curator = newCurator();
+		curator.create().creatingParentsIfNeeded().forPath("/lazy/app", "x: 1".getBytes(UTF_8));
+		curator.create().creatingParentsIfNeeded().forPath("/lazy/app/a/b", "2".getBytes(UTF_8));
+		curator.create().creatingParentsIfNeeded().forPath("/lazy/app/c", "3".getBytes(UTF_8));
+	}
+
+	@AfterClass
+	public static void stopZookeeper() throws Exception {
+		curator.close();
+		server.close();
+	}
+
+	@Test
+	public void readsKeysOneByOne() {
+		LazyZookeeperPropertySource source = new LazyZookeeperPropertySource("/lazy/app", "p", new ZookeeperTreeLoader(curator));
+		assertEquals("2", source.getProperty("p.a.b"));
+		assertEquals(1, source.getProperty("p.x"));
+		assertNull(source.getProperty("p.a.missing"));
+		assertNull(source.getProperty("other.a.b"));
+	}
+
+	@Test
+	public void servesTheSnapshotWhenZookeeperCannotBeRead() throws Exception {
+		ZookeeperSnapshotStore snapshotStore = ZookeeperSnapshotStore.inMemory(server.getConnectString());
+		ZookeeperTreeLoader loader = new ZookeeperTreeLoader(curator);
+		loader.setSnapshotStore(snapshotStore);
+		ZookeeperTreeLoader.await(loader.load("/lazy/app"));
+
+		CuratorFramework closed = newCurator();
+		ZookeeperTreeLoader closedLoader = new ZookeeperTreeLoader(closed);
+		closedLoader.setSnapshotStore(snapshotStore);
+		LazyZookeeperPropertySource source = new LazyZookeeperPropertySource("/lazy/app", "p", closedLoader);
+		closed.close();
+		assertEquals("3", source.getProperty("p.c"));
+		assertEquals(1, source.getProperty("p.x"));
+		assertNull(source.getProperty("p.missing"));
+	}
+
+	@Test
+	public void servesNoValueWithoutASnapshot() throws Exception {
+		CuratorFramework closed = newCurator();
+		LazyZookeeperPropertySource source = new LazyZookeeperPropertySource("/lazy/app", "p", new ZookeeperTreeLoader(closed));
+		closed.close();
+		assertNull(source.getProperty("p.c"));
+	}
+
+	private static CuratorFramework newCurator() throws InterruptedException {
+		CuratorFramework curator = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+		curator.start();
+		curator.blockUntilConnected();
+		return curator;
+	}
+}
@@ -0,0 +1,124 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class PropertyStoreTest {
+	@Test
+	public void emptyStore() {
+		assertEquals(0, PropertyStore.EMPTY.size());
+		assertNull(PropertyStore.EMPTY.get("a"));
+		assertFalse(PropertyStore.EMPTY.containsKey("a"));
+		assertEquals(0, PropertyStore.builder(8).build().size());
+	}
+
+	@Test
+	public void keepsInsertionOrder() {
+		PropertyStore store = PropertyStore.builder(2).put("c", "3").put("a", "1").put("b", "2").build();
+		assertArrayEquals(new String[]{"c", "a", "b"}, store.keys());
+		assertEquals("a", store.getKey(1));
+		assertEquals("1", store.getValue(1));
+		assertEquals("2", store.get("b"));
+		assertTrue(store.containsKey("c"));
+		assertFalse(store.containsKey("d"));
+	}
+
+	@Test
+	public void putAgainReplacesInPlace() {
+		PropertyStore store = PropertyStore.builder(4).put("a", "1").put("b", "2").put("a", "3").build();
+		assertArrayEquals(new String[]{"a", "b"}, store.keys());
+		assertEquals("3", store.get("a"));
+	}
+
+	@Test
+	public void buildDropsRemovedKeys() {
+		PropertyStore store = PropertyStore.builder(4).put("a", "1").put("b", "2").put("c", "3").remove("b").remove("b").remove("x").build();
+		assertEquals(2, store.size());
+		assertArrayEquals(new String[]{"a", "c"}, store.keys());
+		assertNull(store.get("b"));
+		assertFalse(store.containsKey("b"));
+		assertEquals("3", store.get("c"));
+	}
+
+	@Test
+	public void putAfterRemoveRevivesTheKeyInPlace() {
+		PropertyStore store = PropertyStore.builder(4).put("a", "1").put("b", "2").remove("a").put("a", "4").build();
+		assertArrayEquals(new String[]{"a", "b"}, store.keys());
+		assertEquals("4", store.get("a"));
+	}
+
+	@Test
+	public void removingEveryKeyBuildsAnEmptyStore() {
+		PropertyStore store = PropertyStore.builder(4).put("a", "1").remove("a").build();
+		assertEquals(0, store.size());
+		assertNull(store.get("a"));
+	}
+
+	@Test
+	public void growingRebuildsTheIndex() {
+		PropertyStore.Builder builder = PropertyStore.builder(0);
+		for (int i = 0; i < 1000; i++) {
+			builder.put("key" + i, i);
+		}
+		for (int i = 0; i < 1000; i += 2) {
+			builder.remove("key" + i);
+		}
+		PropertyStore store = builder.build();
+		assertEquals(500, store.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i % 2 == 0 ? null : i, store.get("key" + i));
+		}
+		assertEquals("key1", store.getKey(0));
+	}
+
+	@Test
+	public void findsKeysWithTheSameHash() {
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		PropertyStore store = PropertyStore.builder(1).put("Aa", "1").put("BB", "2").remove("Aa").put("AaAa", "3").put("BBBB", "4").build();
+		assertNull(store.get("Aa"));
+		assertEquals("2", store.get("BB"));
+		assertEquals("3", store.get("AaAa"));
+		assertEquals("4", store.get("BBBB"));
+	}
+
+	@Test
+	public void toBuilderLeavesTheStoreAsItIs() {
+		PropertyStore store = PropertyStore.builder(2).put("a", "1").put("b", "2").build();
+		PropertyStore changed = store.toBuilder().remove("a").put("c", "3").put("b", "4").build();
+		assertArrayEquals(new String[]{"a", "b"}, store.keys());
+		assertEquals("2", store.get("b"));
+		assertArrayEquals(new String[]{"b", "c"}, changed.keys());
+		assertEquals("4", changed.get("b"));
+	}
+
+	@Test
+	public void internsKeysAndShortStringValues() {
+		PropertyStore store = PropertyStore.builder(1).put(new String("shared.key"), new String("shared value")).build();
+		assertSame("shared.key", store.getKey(0));
+		assertSame("shared value", store.get("shared.key"));
+	}
+
+	@Test
+	public void keepsLongValuesAsTheyAre() {
+		char[] chars = new char[PropertyStore.MAX_INTERNED_LENGTH + 1];
+		Arrays.fill(chars, 'x');
+		String interned = new String(chars).intern();
+		String value = new String(chars);
+		PropertyStore store = PropertyStore.builder(1).put("document", value).build();
+		assertSame(value, store.get("document"));
+		assertNotSame(interned, store.get("document"));
+	}
+}
@@ -0,0 +1,86 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class ZookeeperReadLimiterTest {
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(50);
+
+	@Test
+	public void sendsReadsOnceThereIsRoom() {
+		ZookeeperReadLimiter limiter = new ZookeeperReadLimiter(2);
+		AtomicInteger sent = new AtomicInteger();
+		for (int i = 0; i < 3; i++) {
+			limiter.submit(sent::incrementAndGet);
+		}
+		assertEquals(2, sent.get());
+		limiter.release(-1);
+		assertEquals(3, sent.get());
+	}
+
+	@Test
+	public void halvesTheCapOnSlowReadsAndGrowsItOnFastOnes() throws InterruptedException {
+		ZookeeperReadLimiter limiter = new ZookeeperReadLimiter(8);
+		limiter.setTargetLatencyMs(1);
+		slowRead(limiter);
+		assertEquals(4, limiter.getLimit());
+		for (int i = 0; i < 4; i++) {
+			read(limiter, 0);
+		}
+		assertEquals(5, limiter.getLimit());
+
+		limiter.setTargetLatencyMs(0);
+		assertEquals(8, limiter.getLimit());
+	}
+
+	@Test
+	public void settingTheSameMaximumKeepsTheAdaptedCap() throws InterruptedException {
+		ZookeeperReadLimiter limiter = new ZookeeperReadLimiter(8);
+		limiter.setTargetLatencyMs(1);
+		slowRead(limiter);
+		limiter.setMaxInFlight(8);
+		assertEquals(4, limiter.getLimit());
+		limiter.setMaxInFlight(16);
+		assertEquals(16, limiter.getLimit());
+	}
+
+	@Test
+	public void sharedLimiterKeepsItsAdaptedCap() throws InterruptedException {
+		ZookeeperReadLimiter limiter = ZookeeperReadLimiter.shared(8);
+		limiter.setTargetLatencyMs(1);
+		try {
+			slowRead(limiter);
+			int limit = limiter.getLimit();
+			assertSame(limiter, ZookeeperReadLimiter.shared(8));
+			assertEquals(limit, limiter.getLimit());
+		} finally {
+			limiter.setTargetLatencyMs(0);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsCapsBelowOne() {
+		new ZookeeperReadLimiter(0);
+	}
+
+	private static void slowRead(ZookeeperReadLimiter limiter) throws InterruptedException {
+		// a target period since the limiter was created
+		TimeUnit.MILLISECONDS.sleep(5);
+		read(limiter, SLOW);
+	}
+
+	private static void read(ZookeeperReadLimiter limiter, long latencyNanos) {
+		limiter.submit(() -> {
+		});
+		limiter.release(latencyNanos);
+	}
+}
@@ -0,0 +1,151 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.zookeeper.data.Stat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class ZookeeperSnapshotStoreTest {
+	private static final Charset UTF_8   = Charset.forName("UTF-8");
+	private static final String  ROOT    = "/config/applications/app/dev";
+	private static final String  CONNECT = "zk1:2181,zk2:2181";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsWhatItWrote() throws IOException {
+		ZookeeperSnapshotStore store = new ZookeeperSnapshotStore(folder.getRoot().toPath(), CONNECT);
+		Map<String, Stat> stats = new HashMap<>();
+		stats.put(ROOT + "/a", stat(5, 6, 1));
+		store.write(tree().withStats(stats));
+
+		ZookeeperTree snapshot = store.read(ROOT);
+		assertTree(snapshot);
+		assertTrue(snapshot.hasStats());
+		assertEquals(5, snapshot.getStat(ROOT + "/a").getMzxid());
+		assertNull(snapshot.getStat(ROOT));
+		assertTrue(ZookeeperSnapshotStore.isCurrent(stat(3, 4, 2), snapshot.getRootStat()));
+	}
+
+	@Test
+	public void readsTheFirstFormat() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(
+				directory.resolve(URLEncoder.encode(ROOT, "UTF-8") + ".snapshot"))))) {
+			out.writeInt(0x414c5053);
+			out.writeInt(1);
+			out.writeUTF(CONNECT);
+			out.writeUTF(ROOT);
+			out.writeBoolean(true);
+			out.writeLong(3);
+			out.writeLong(4);
+			out.writeInt(2);
+			out.writeInt(0);
+			ZookeeperSnapshotStore.writeNodes(out, tree());
+		}
+		ZookeeperSnapshotStore store = new ZookeeperSnapshotStore(directory, CONNECT);
+		ZookeeperTree snapshot = store.read(ROOT);
+		assertTree(snapshot);
+		assertFalse(snapshot.hasStats());
+
+		// and is replaced by the current format
+		store.write(snapshot);
+		assertTree(store.read(ROOT));
+	}
+
+	@Test
+	public void ignoresUnknownFormats() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(
+				directory.resolve(URLEncoder.encode(ROOT, "UTF-8") + ".snapshot"))))) {
+			out.writeInt(0x414c5053);
+			out.writeInt(99);
+		}
+		assertNull(new ZookeeperSnapshotStore(directory, CONNECT).read(ROOT));
+	}
+
+	@Test
+	public void bindsSnapshotsToTheirConnectString() {
+		new ZookeeperSnapshotStore(folder.getRoot().toPath(), CONNECT).write(tree());
+		assertNull(new ZookeeperSnapshotStore(folder.getRoot().toPath(), "other:2181").read(ROOT));
+		assertNull(new ZookeeperSnapshotStore(folder.getRoot().toPath(), CONNECT).read(ROOT + "/a"));
+	}
+
+	@Test
+	public void keepsSnapshotsInMemoryWithoutADirectory() {
+		ZookeeperSnapshotStore store = ZookeeperSnapshotStore.inMemory(CONNECT);
+		assertNull(store.read(ROOT));
+		ZookeeperTree tree = tree();
+		store.write(tree);
+		assertSame(tree, store.read(ROOT));
+	}
+
+	@Test
+	public void comparesRootStats() {
+		assertTrue(ZookeeperSnapshotStore.isCurrent(null, null));
+		assertFalse(ZookeeperSnapshotStore.isCurrent(stat(1, 1, 1), null));
+		assertFalse(ZookeeperSnapshotStore.isCurrent(stat(1, 1, 1), stat(1, 2, 1)));
+		assertFalse(ZookeeperSnapshotStore.isCurrent(stat(1, 1, 1), stat(1, 1, 2)));
+	}
+
+	/**
+	 * the root with the yaml {@code x: 1}, a node {@code a} with a child {@code b}
+	 */
+	private static ZookeeperTree tree() {
+		Map<String, byte[]> data = new HashMap<>();
+		Map<String, List<String>> children = new HashMap<>();
+		data.put(ROOT, "x: 1".getBytes(UTF_8));
+		children.put(ROOT, Collections.singletonList("a"));
+		data.put(ROOT + "/a", "1".getBytes(UTF_8));
+		children.put(ROOT + "/a", Collections.singletonList("b"));
+		data.put(ROOT + "/a/b", new byte[0]);
+		children.put(ROOT + "/a/b", Collections.<String>emptyList());
+		return new ZookeeperTree(ROOT, stat(3, 4, 2), data, children);
+	}
+
+	private static void assertTree(ZookeeperTree tree) {
+		assertEquals(ROOT, tree.getRoot());
+		assertEquals(3, tree.getPaths().size());
+		assertArrayEquals("x: 1".getBytes(UTF_8), tree.getData(ROOT));
+		assertArrayEquals("1".getBytes(UTF_8), tree.getData(ROOT + "/a"));
+		assertArrayEquals(new byte[0], tree.getData(ROOT + "/a/b"));
+		assertEquals(Arrays.asList("b"), tree.getChildren(ROOT + "/a"));
+		assertTrue(tree.getChildren(ROOT + "/a/b").isEmpty());
+		assertEquals(3, tree.getRootStat().getMzxid());
+		assertEquals(4, tree.getRootStat().getPzxid());
+		assertEquals(2, tree.getRootStat().getCversion());
+	}
+
+	private static Stat stat(long mzxid, long pzxid, int cversion) {
+		Stat stat = new Stat();
+		stat.setMzxid(mzxid);
+		stat.setPzxid(pzxid);
+		stat.setCversion(cversion);
+		return stat;
+	}
+}
@@ -0,0 +1,129 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.light.alpaca.config.metrics.ConfigMetrics;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class ZookeeperTreeLoaderTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static TestingServer    server;
+	private static CuratorFramework curator;
+
+	@BeforeClass
+	public static void startZookeeper() throws Exception {
+		server = new TestingServer();
+		curator = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+		curator.start();
+		curator.blockUntilConnected();
+	}
+
+	@AfterClass
+	public static void stopZookeeper() throws Exception {
+		curator.close();
+		server.close();
+	}
+
+	@Test
+	public void readsWholeTrees() throws Exception {
+		create("/tree/app", "x: 1");
+		create("/tree/app/a", "1");
+		create("/tree/app/a/b", "2");
+		ZookeeperTree tree = ZookeeperTreeLoader.await(new ZookeeperTreeLoader(curator, 1).load("tree/app"));
+		assertEquals(new HashSet<>(Arrays.asList("/tree/app", "/tree/app/a", "/tree/app/a/b")), tree.getPaths());
+		assertArrayEquals("2".getBytes(UTF_8), tree.getData("/tree/app/a/b"));
+		assertTrue(tree.hasStats());
+	}
+
+	@Test
+	public void revalidatedNodesReadOnlyWhatChanged() throws Exception {
+		create("/revalidate/app", "x: 1");
+		create("/revalidate/app/a", "1");
+		create("/revalidate/app/b", "2");
+		create("/revalidate/app/b/c", "3");
+		ConfigMetrics metrics = new ConfigMetrics();
+		ZookeeperTreeLoader loader = new ZookeeperTreeLoader(curator);
+		loader.setSnapshotStore(ZookeeperSnapshotStore.inMemory(server.getConnectString()));
+		loader.setRevalidateNodes(true);
+		loader.setMetrics(metrics);
+		ZookeeperTreeLoader.await(loader.load("/revalidate/app"));
+		long getData = metrics.getGetData().getCount();
+		long getChildren = metrics.getGetChildren().getCount();
+		assertEquals(4, getData);
+		assertEquals(0, metrics.getCheckExists().getCount());
+
+		curator.setData().forPath("/revalidate/app/b/c", "4".getBytes(UTF_8));
+		curator.create().forPath("/revalidate/app/d", "5".getBytes(UTF_8));
+		ZookeeperTree tree = ZookeeperTreeLoader.await(loader.load("/revalidate/app"));
+		assertArrayEquals("4".getBytes(UTF_8), tree.getData("/revalidate/app/b/c"));
+		assertArrayEquals("5".getBytes(UTF_8), tree.getData("/revalidate/app/d"));
+		assertArrayEquals("1".getBytes(UTF_8), tree.getData("/revalidate/app/a"));
+		// the four known nodes are checked; c and the new d are read
+		assertEquals(4, metrics.getCheckExists().getCount());
+		assertEquals(getData + 2, metrics.getGetData().getCount());
+		// the root's children changed, and d is new
+		assertEquals(getChildren + 2, metrics.getGetChildren().getCount());
+
+		curator.delete().forPath("/revalidate/app/a");
+		tree = ZookeeperTreeLoader.await(loader.load("/revalidate/app"));
+		assertNull(tree.getData("/revalidate/app/a"));
+		assertEquals(Arrays.asList("b", "d"), sorted(tree.getChildren("/revalidate/app").toArray(new String[0])));
+	}
+
+	@Test
+	public void inMemorySnapshotsSeeEditsBelowAnUnchangedRoot() throws Exception {
+		create("/memory/app", "x: 1");
+		create("/memory/app/a/b", "1");
+		ZookeeperTreeLoader loader = new ZookeeperTreeLoader(curator);
+		loader.setSnapshotStore(ZookeeperSnapshotStore.inMemory(server.getConnectString()));
+		ZookeeperTreeLoader.await(loader.load("/memory/app"));
+
+		curator.setData().forPath("/memory/app/a/b", "2".getBytes(UTF_8));
+		ZookeeperTree tree = ZookeeperTreeLoader.await(loader.load("/memory/app"));
+		assertArrayEquals("2".getBytes(UTF_8), tree.getData("/memory/app/a/b"));
+	}
+
+	@Test
+	public void readsBundlesThroughTheLimiter() throws Exception {
+		create("/bundle/app", "x: 1");
+		create("/bundle/app/a", "1");
+		new ZookeeperBundlePublisher(curator).publish("/bundle/app");
+		ConfigMetrics metrics = new ConfigMetrics();
+		ZookeeperTreeLoader loader = new ZookeeperTreeLoader(curator, 1);
+		loader.setBundles(true);
+		loader.setMetrics(metrics);
+		ZookeeperTree tree = ZookeeperTreeLoader.await(loader.load("/bundle/app"));
+		assertArrayEquals("1".getBytes(UTF_8), tree.getData("/bundle/app/a"));
+		assertEquals(1, metrics.getCheckExists().getCount());
+		assertEquals(1, metrics.getGetData().getCount());
+		assertEquals(0, metrics.getGetChildren().getCount());
+	}
+
+	private static void create(String path, String data) throws Exception {
+		curator.create().creatingParentsIfNeeded().forPath(path, data.getBytes(UTF_8));
+	}
+
+	private static List<String> sorted(String[] names) {
+		Arrays.sort(names);
+		return Arrays.asList(names);
+	}
+}
@@ -0,0 +1,150 @@
+package org.light.alpaca.config.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Lee
+ * @date 2016/12/08 0008
+ */
+public class ZookeeperValuesTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static TestingServer    server;
+	private static CuratorFramework curator;
+
+	@BeforeClass
+	public static void startZookeeper() throws Exception {
+		server = new TestingServer();
+		curator = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+		curator.start();
+		curator.blockUntilConnected();
+	}
+
+	@AfterClass
+	public static void stopZookeeper() throws Exception {
+		curator.close();
+		server.close();
+	}
+
+	@Test
+	public void storesSmallValuesAsTheyAre() throws Exception {
+		ZookeeperValues.write(curator, "/small/value", "plain".getBytes(UTF_8));
+		assertArrayEquals("plain".getBytes(UTF_8), curator.getData().forPath("/small/value"));
+		assertEquals("plain", read("/small/value"));
+	}
+
+	@Test
+	public void compressesLargeValues() throws Exception {
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			value.append("line ").append(i % 10).append('\n');
+		}
+		ZookeeperValues.write(curator, "/compressed/value", value.toString().getBytes(UTF_8));
+		byte[] data = curator.getData().forPath("/compressed/value");
+		assertTrue(ZookeeperValues.isCompressed(data));
+		assertTrue(data.length < value.length());
+		assertEquals(value.toString(), read("/compressed/value"));
+	}
+
+	@Test
+	public void splitsValuesTooLargeForOneNode() throws Exception {
+		String value = random(2 * ZookeeperValues.CHUNK_SIZE, 1);
+		ZookeeperValues.write(curator, "/chunked/value", value.getBytes(UTF_8));
+		assertTrue(ZookeeperValues.isChunked(curator.getData().forPath("/chunked/value")));
+		assertGeneration("/chunked/value", 0);
+		assertEquals(value, read("/chunked/value"));
+	}
+
+	@Test
+	public void writesEachVersionAsANewGeneration() throws Exception {
+		ZookeeperValues.write(curator, "/generations/value", random(2 * ZookeeperValues.CHUNK_SIZE, 2).getBytes(UTF_8));
+		String value = random(3 * ZookeeperValues.CHUNK_SIZE, 3);
+		ZookeeperValues.write(curator, "/generations/value", value.getBytes(UTF_8));
+		assertGeneration("/generations/value", 1);
+		assertEquals(value, read("/generations/value"));
+
+		ZookeeperValues.write(curator, "/generations/value", "small again".getBytes(UTF_8));
+		assertTrue(curator.getChildren().forPath("/generations/value").isEmpty());
+		assertEquals("small again", read("/generations/value"));
+	}
+
+	@Test
+	public void readsAndReplacesFirstFormatHeaders() throws Exception {
+		byte[] value = random(ZookeeperValues.CHUNK_SIZE + 1000, 4).getBytes(UTF_8);
+		curator.create().creatingParentsIfNeeded().forPath("/first/value/_chunk0", Arrays.copyOf(value, ZookeeperValues.CHUNK_SIZE));
+		curator.create().forPath("/first/value/_chunk1", Arrays.copyOfRange(value, ZookeeperValues.CHUNK_SIZE, value.length));
+		CRC32 crc = new CRC32();
+		crc.update(value);
+		curator.setData().forPath("/first/value", ByteBuffer.allocate(24).putInt(0x00414c43).putInt(1).putInt(2).putInt(value.length)
+		                                                 .putLong(crc.getValue()).array());
+		assertEquals(new String(value, UTF_8), read("/first/value"));
+
+		String replaced = random(2 * ZookeeperValues.CHUNK_SIZE, 5);
+		ZookeeperValues.write(curator, "/first/value", replaced.getBytes(UTF_8));
+		assertGeneration("/first/value", 0);
+		assertEquals(replaced, read("/first/value"));
+	}
+
+	@Test
+	public void missingChunksYieldNoValue() throws Exception {
+		ZookeeperValues.write(curator, "/missing/value", random(2 * ZookeeperValues.CHUNK_SIZE, 6).getBytes(UTF_8));
+		curator.delete().forPath("/missing/value/_chunk0_1");
+		assertNull(read("/missing/value"));
+	}
+
+	@Test
+	public void recognizesChunkNames() {
+		assertTrue(ZookeeperValues.isChunk("_chunk0"));
+		assertTrue(ZookeeperValues.isChunk("_chunk12"));
+		assertTrue(ZookeeperValues.isChunk("_chunk3_0"));
+		assertFalse(ZookeeperValues.isChunk("_chunk"));
+		assertFalse(ZookeeperValues.isChunk("_chunk_1"));
+		assertFalse(ZookeeperValues.isChunk("_chunk1_"));
+		assertFalse(ZookeeperValues.isChunk("_chunks"));
+		assertFalse(ZookeeperValues.isChunk("chunk1"));
+	}
+
+	private static String read(String path) {
+		ZookeeperTree tree = ZookeeperTreeLoader.await(new ZookeeperTreeLoader(curator).load(path));
+		return ZookeeperValues.text(tree, path, tree.getData(path));
+	}
+
+	private static void assertGeneration(String path, int generation) throws Exception {
+		List<String> chunks = curator.getChildren().forPath(path);
+		assertFalse(chunks.isEmpty());
+		for (String chunk : chunks) {
+			assertTrue(chunk, chunk.startsWith(ZookeeperValues.CHUNK_PREFIX + generation + "_"));
+		}
+	}
+
+	/**
+	 * @return text that does not compress below {@code length / 2}
+	 */
+	private static String random(int length, long seed) {
+		Random random = new Random(seed);
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) ('!' + random.nextInt(90));
+		}
+		return new String(chars);
+	}
+}